@@ -0,0 +1,389 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 thedarkcolour
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ */
+
+package thedarkcolour.modkit;
+
+import com.mojang.brigadier.arguments.BoolArgumentType;
+import com.mojang.brigadier.arguments.IntegerArgumentType;
+import com.mojang.brigadier.arguments.StringArgumentType;
+import com.mojang.brigadier.builder.LiteralArgumentBuilder;
+import com.mojang.brigadier.context.CommandContext;
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import net.minecraft.commands.CommandSourceStack;
+import net.minecraft.commands.Commands;
+import net.minecraft.commands.SharedSuggestionProvider;
+import net.minecraft.commands.arguments.DimensionArgument;
+import net.minecraft.core.Direction;
+import net.minecraft.network.chat.Component;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.block.Mirror;
+import net.minecraft.world.level.block.Rotation;
+import net.minecraftforge.event.RegisterCommandsEvent;
+import org.jetbrains.annotations.Nullable;
+import thedarkcolour.modkit.item.AbstractFillWand;
+import thedarkcolour.modkit.item.ClearWandItem;
+import thedarkcolour.modkit.item.FillWandItem;
+import thedarkcolour.modkit.item.KillWand;
+import thedarkcolour.modkit.network.MKNetwork;
+import thedarkcolour.modkit.wand.CensusJob;
+import thedarkcolour.modkit.wand.ClipboardTransform;
+import thedarkcolour.modkit.wand.EntityFilter;
+import thedarkcolour.modkit.wand.FillPattern;
+import thedarkcolour.modkit.wand.JobScheduler;
+import thedarkcolour.modkit.wand.ReplaceMask;
+import thedarkcolour.modkit.wand.Schematics;
+import thedarkcolour.modkit.wand.Selection;
+import thedarkcolour.modkit.wand.Shape;
+import thedarkcolour.modkit.wand.TickProfiler;
+import thedarkcolour.modkit.wand.UndoHistory;
+import thedarkcolour.modkit.wand.WandSession;
+import thedarkcolour.modkit.wand.WriteMode;
+
+import java.util.concurrent.CompletionException;
+import java.util.function.UnaryOperator;
+
+/**
+ * The "/modkit" command, used to control wand operations.
+ */
+final class MKCommands {
+    static void registerCommands(RegisterCommandsEvent event) {
+        var writeMode = Commands.literal("writemode").executes(MKCommands::getWriteMode);
+        for (var mode : WriteMode.values()) {
+            writeMode.then(Commands.literal(mode.getName()).executes(ctx -> setWriteMode(ctx, mode)));
+        }
+
+        var shape = Commands.literal("shape");
+        for (var value : Shape.values()) {
+            shape.then(Commands.literal(value.getName()).executes(ctx -> setShape(ctx, value)));
+        }
+
+        var selection = Commands.literal("sel")
+                .then(editSelection("expand", Selection::expand))
+                .then(editSelection("contract", Selection::contract))
+                .then(editSelection("shift", Selection::shift))
+                .then(Commands.literal("clear").executes(MKCommands::clearSelection));
+
+        event.getDispatcher().register(Commands.literal(ModKit.ID)
+                .requires(source -> source.hasPermission(2))
+                .then(Commands.literal("cancel").executes(MKCommands::cancel))
+                .then(Commands.literal("undo").executes(ctx -> undoOrRedo(ctx, false)))
+                .then(Commands.literal("redo").executes(ctx -> undoOrRedo(ctx, true)))
+                .then(selection)
+                .then(Commands.literal("profile")
+                        .executes(ctx -> profile(ctx, 100))
+                        .then(Commands.argument("ticks", IntegerArgumentType.integer(1, 12000)).executes(ctx -> profile(ctx, IntegerArgumentType.getInteger(ctx, "ticks")))))
+                .then(Commands.literal("census")
+                        .executes(ctx -> census(ctx, ctx.getSource().getLevel()))
+                        .then(Commands.argument("dimension", DimensionArgument.dimension()).executes(ctx -> census(ctx, DimensionArgument.getDimension(ctx, "dimension")))))
+                .then(Commands.literal("purge")
+                        .then(Commands.literal("radius").then(Commands.argument("radius", IntegerArgumentType.integer(1, 256))
+                                .executes(ctx -> setPurgeRadius(ctx, IntegerArgumentType.getInteger(ctx, "radius")))))
+                        .then(Commands.literal("selection").executes(ctx -> setPurgeRadius(ctx, 0)))
+                        .then(Commands.literal("filter")
+                                .executes(ctx -> setPurgeFilter(ctx, null))
+                                .then(Commands.argument("filter", StringArgumentType.greedyString()).executes(ctx -> setPurgeFilter(ctx, StringArgumentType.getString(ctx, "filter")))))
+                        .then(Commands.literal("protected").then(Commands.argument("include", BoolArgumentType.bool())
+                                .executes(ctx -> setPurgeProtected(ctx, BoolArgumentType.getBool(ctx, "include"))))))
+                .then(writeMode)
+                .then(shape)
+                .then(Commands.literal("pattern")
+                        .then(Commands.argument("pattern", StringArgumentType.greedyString()).executes(MKCommands::setPattern)))
+                .then(Commands.literal("mask")
+                        .executes(ctx -> setMask(ctx, null))
+                        .then(Commands.argument("mask", StringArgumentType.greedyString()).executes(ctx -> setMask(ctx, StringArgumentType.getString(ctx, "mask")))))
+                .then(Commands.literal("rotate")
+                        .then(Commands.literal("90").executes(ctx -> transform(ctx, transform -> transform.rotated(Rotation.CLOCKWISE_90))))
+                        .then(Commands.literal("180").executes(ctx -> transform(ctx, transform -> transform.rotated(Rotation.CLOCKWISE_180))))
+                        .then(Commands.literal("270").executes(ctx -> transform(ctx, transform -> transform.rotated(Rotation.COUNTERCLOCKWISE_90)))))
+                .then(Commands.literal("flip")
+                        .then(Commands.literal("x").executes(ctx -> transform(ctx, transform -> transform.flipped(Mirror.FRONT_BACK))))
+                        .then(Commands.literal("z").executes(ctx -> transform(ctx, transform -> transform.flipped(Mirror.LEFT_RIGHT)))))
+                .then(Commands.literal("transform")
+                        .executes(ctx -> transform(ctx, UnaryOperator.identity()))
+                        .then(Commands.literal("reset").executes(ctx -> transform(ctx, transform -> ClipboardTransform.NONE))))
+                .then(Commands.literal("schematic")
+                        .then(Commands.literal("save").then(Commands.argument("name", StringArgumentType.word()).executes(ctx -> saveSchematic(ctx, false))))
+                        .then(Commands.literal("export").then(Commands.argument("name", StringArgumentType.word()).executes(ctx -> saveSchematic(ctx, true))))
+                        .then(Commands.literal("load").then(Commands.argument("name", StringArgumentType.word())
+                                .suggests((ctx, builder) -> SharedSuggestionProvider.suggest(Schematics.list(), builder))
+                                .executes(MKCommands::loadSchematic)))));
+    }
+
+    // amount and an optional direction, which defaults to the direction the player is facing
+    private static LiteralArgumentBuilder<CommandSourceStack> editSelection(String name, SelectionEdit edit) {
+        var amount = Commands.argument("amount", IntegerArgumentType.integer(1)).executes(ctx -> editSelection(ctx, edit, null));
+        for (var direction : Direction.values()) {
+            amount.then(Commands.literal(direction.getName()).executes(ctx -> editSelection(ctx, edit, direction)));
+        }
+        return Commands.literal(name).then(amount);
+    }
+
+    private static int editSelection(CommandContext<CommandSourceStack> ctx, SelectionEdit edit, @Nullable Direction direction) throws CommandSyntaxException {
+        var player = ctx.getSource().getPlayerOrException();
+        var session = WandSession.get(player.getUUID());
+        var side = direction == null ? Direction.orderedByNearest(player)[0] : direction;
+        var amount = IntegerArgumentType.getInteger(ctx, "amount");
+        var selection = session.updateSelection(current -> edit.apply(current, side, amount));
+        var box = selection.getBox();
+
+        if (box == null) {
+            ctx.getSource().sendFailure(Component.literal("Nothing is selected"));
+            return 0;
+        }
+
+        MKNetwork.sendSelection(player, selection);
+        ctx.getSource().sendSuccess(() -> Component.literal(String.format("Selected (%d %d %d) to (%d %d %d), click inside it to use it",
+                box.minX(), box.minY(), box.minZ(), box.maxX(), box.maxY(), box.maxZ())), false);
+        return 1;
+    }
+
+    private static int clearSelection(CommandContext<CommandSourceStack> ctx) throws CommandSyntaxException {
+        var player = ctx.getSource().getPlayerOrException();
+        WandSession.get(player.getUUID()).clearSelection();
+        MKNetwork.sendSelection(player, Selection.EMPTY);
+        ctx.getSource().sendSuccess(() -> Component.literal("Cleared selection"), false);
+        return 1;
+    }
+
+    private static int cancel(CommandContext<CommandSourceStack> ctx) throws CommandSyntaxException {
+        var player = ctx.getSource().getPlayerOrException();
+
+        // both run, a profile is not part of the job queue
+        var cancelled = JobScheduler.cancel(player.getUUID()) | TickProfiler.stop(player.getUUID());
+        if (cancelled) {
+            ctx.getSource().sendSuccess(() -> Component.literal("Cancelled wand operations"), false);
+            return 1;
+        } else {
+            ctx.getSource().sendFailure(Component.literal("No wand operations to cancel"));
+            return 0;
+        }
+    }
+
+    private static int undoOrRedo(CommandContext<CommandSourceStack> ctx, boolean redo) throws CommandSyntaxException {
+        var player = ctx.getSource().getPlayerOrException();
+        var history = UndoHistory.getIfPresent(player.getUUID());
+
+        if (JobScheduler.isBusy(player.getUUID())) {
+            ctx.getSource().sendFailure(Component.literal("Wait for the current operation to finish"));
+            return 0;
+        } else if (history == null || !(redo ? history.redo(player) : history.undo(player))) {
+            ctx.getSource().sendFailure(Component.literal(redo ? "Nothing to redo" : "Nothing to undo"));
+            return 0;
+        } else {
+            return 1;
+        }
+    }
+
+    private static int getWriteMode(CommandContext<CommandSourceStack> ctx) throws CommandSyntaxException {
+        var mode = WandSession.get(ctx.getSource().getPlayerOrException().getUUID()).getWriteMode();
+        ctx.getSource().sendSuccess(() -> Component.literal("Write mode is " + mode.getName()), false);
+        return 1;
+    }
+
+    private static int setWriteMode(CommandContext<CommandSourceStack> ctx, WriteMode mode) throws CommandSyntaxException {
+        WandSession.get(ctx.getSource().getPlayerOrException().getUUID()).setWriteMode(mode);
+        ctx.getSource().sendSuccess(() -> Component.literal("Set write mode to " + mode.getName()), false);
+        return 1;
+    }
+
+    private static int saveSchematic(CommandContext<CommandSourceStack> ctx, boolean sponge) throws CommandSyntaxException {
+        var source = ctx.getSource();
+        var player = source.getPlayerOrException();
+        var name = StringArgumentType.getString(ctx, "name");
+        var session = WandSession.getIfPresent(player.getUUID());
+        var clipboard = session == null ? null : session.getClipboard();
+
+        if (!Schematics.isValidName(name)) {
+            source.sendFailure(Component.literal("Schematic names can only contain letters, numbers, - and _"));
+            return 0;
+        } else if (clipboard == null) {
+            source.sendFailure(Component.literal("Nothing has been copied with the Clone Wand"));
+            return 0;
+        }
+
+        Schematics.save(clipboard, name, sponge).whenCompleteAsync((file, error) -> {
+            if (error != null) {
+                ModKit.LOGGER.error("Failed to save schematic {}", name, error);
+                source.sendFailure(Component.literal("Failed to save schematic " + name));
+            } else {
+                source.sendSuccess(() -> Component.literal("Saved clipboard to " + file.getFileName()), false);
+            }
+        }, source.getServer());
+        return 1;
+    }
+
+    private static int loadSchematic(CommandContext<CommandSourceStack> ctx) throws CommandSyntaxException {
+        var source = ctx.getSource();
+        var owner = source.getPlayerOrException().getUUID();
+        var name = StringArgumentType.getString(ctx, "name");
+
+        if (!Schematics.isValidName(name)) {
+            source.sendFailure(Component.literal("Schematic names can only contain letters, numbers, - and _"));
+            return 0;
+        }
+
+        Schematics.load(name).whenCompleteAsync((clipboard, error) -> {
+            if (error != null) {
+                ModKit.LOGGER.error("Failed to load schematic {}", name, error);
+                // malformed or unsupported files say what is wrong with them
+                var cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                source.sendFailure(Component.literal("Failed to load schematic " + name + (cause instanceof IllegalArgumentException ? ": " + cause.getMessage() : "")));
+            } else {
+                var session = WandSession.get(owner);
+                session.setClipboard(clipboard);
+                var player = source.getServer().getPlayerList().getPlayer(owner);
+                if (player != null) {
+                    MKNetwork.sendClipboardPreview(player, session);
+                }
+                var box = clipboard.box();
+                source.sendSuccess(() -> Component.literal(String.format("Loaded schematic %s (%dx%dx%d) into the clipboard", name, box.getXSpan(), box.getYSpan(), box.getZSpan())), false);
+            }
+        }, source.getServer());
+        return 1;
+    }
+
+    private static int transform(CommandContext<CommandSourceStack> ctx, UnaryOperator<ClipboardTransform> operator) throws CommandSyntaxException {
+        var player = ctx.getSource().getPlayerOrException();
+        var session = WandSession.get(player.getUUID());
+        var transform = operator.apply(session.getTransform());
+        if (!transform.equals(session.getTransform())) {
+            session.setTransform(transform);
+            MKNetwork.sendClipboardPreview(player, session);
+        }
+
+        ctx.getSource().sendSuccess(() -> Component.literal(String.format("Clipboard is mirrored %s and rotated %s",
+                transform.mirror().getSerializedName(), transform.rotation().getSerializedName())), false);
+        return 1;
+    }
+
+    private static int setShape(CommandContext<CommandSourceStack> ctx, Shape shape) throws CommandSyntaxException {
+        var stack = ctx.getSource().getPlayerOrException().getMainHandItem();
+
+        if (stack.getItem() instanceof FillWandItem || stack.getItem() instanceof ClearWandItem) {
+            AbstractFillWand.setShape(stack, shape);
+            ctx.getSource().sendSuccess(() -> Component.literal("Set wand shape to " + shape.getName()), false);
+            return 1;
+        } else {
+            ctx.getSource().sendFailure(Component.literal("Hold a Fill Wand or Clear Wand to set its shape"));
+            return 0;
+        }
+    }
+
+    private static int setPattern(CommandContext<CommandSourceStack> ctx) throws CommandSyntaxException {
+        var stack = ctx.getSource().getPlayerOrException().getMainHandItem();
+        var pattern = StringArgumentType.getString(ctx, "pattern");
+
+        if (stack.getItem() instanceof FillWandItem) {
+            // fails the command if the pattern is invalid
+            FillPattern.parse(pattern);
+            FillWandItem.setPattern(stack, pattern);
+            ctx.getSource().sendSuccess(() -> Component.literal("Set wand pattern to " + pattern), false);
+            return 1;
+        } else {
+            ctx.getSource().sendFailure(Component.literal("Hold a Fill Wand to set its pattern"));
+            return 0;
+        }
+    }
+
+    private static int setMask(CommandContext<CommandSourceStack> ctx, @Nullable String mask) throws CommandSyntaxException {
+        var stack = ctx.getSource().getPlayerOrException().getMainHandItem();
+
+        if (stack.getItem() instanceof FillWandItem || stack.getItem() instanceof ClearWandItem) {
+            if (mask != null) {
+                ReplaceMask.parse(mask);
+            }
+            AbstractFillWand.setMask(stack, mask);
+            ctx.getSource().sendSuccess(() -> Component.literal(mask == null ? "Cleared wand mask" : "Set wand mask to " + mask), false);
+            return 1;
+        } else {
+            ctx.getSource().sendFailure(Component.literal("Hold a Fill Wand or Clear Wand to set its mask"));
+            return 0;
+        }
+    }
+
+    private static int profile(CommandContext<CommandSourceStack> ctx, int ticks) throws CommandSyntaxException {
+        var player = ctx.getSource().getPlayerOrException();
+        var selection = WandSession.get(player.getUUID()).getSelection();
+        var box = selection.getBox();
+
+        if (box == null || selection.getDimension() != player.level().dimension()) {
+            ctx.getSource().sendFailure(Component.literal("Nothing is selected"));
+            return 0;
+        }
+
+        if (!TickProfiler.start(player.serverLevel(), player.getUUID(), box, ticks)) {
+            ctx.getSource().sendFailure(Component.literal("Already profiling, use /modkit cancel to stop"));
+            return 0;
+        }
+
+        ctx.getSource().sendSuccess(() -> Component.literal("Profiling for " + ticks + " ticks"), false);
+        return 1;
+    }
+
+    private static int census(CommandContext<CommandSourceStack> ctx, ServerLevel level) throws CommandSyntaxException {
+        var player = ctx.getSource().getPlayerOrException();
+
+        JobScheduler.submit(new CensusJob(level, player.getUUID()));
+        return 1;
+    }
+
+    private static int setPurgeRadius(CommandContext<CommandSourceStack> ctx, int radius) throws CommandSyntaxException {
+        var stack = ctx.getSource().getPlayerOrException().getMainHandItem();
+
+        if (stack.getItem() instanceof KillWand) {
+            KillWand.setPurgeRadius(stack, radius);
+            ctx.getSource().sendSuccess(() -> Component.literal(radius == 0 ? "Kill Wand now purges the selection" : "Kill Wand now purges a radius of " + radius), false);
+            return 1;
+        } else {
+            ctx.getSource().sendFailure(Component.literal("Hold a Kill Wand to set its purge area"));
+            return 0;
+        }
+    }
+
+    private static int setPurgeFilter(CommandContext<CommandSourceStack> ctx, @Nullable String filter) throws CommandSyntaxException {
+        var stack = ctx.getSource().getPlayerOrException().getMainHandItem();
+
+        if (stack.getItem() instanceof KillWand) {
+            if (filter != null) {
+                EntityFilter.parse(filter, false);
+            }
+            KillWand.setPurgeFilter(stack, filter);
+            ctx.getSource().sendSuccess(() -> Component.literal(filter == null ? "Cleared purge filter" : "Set purge filter to " + filter), false);
+            return 1;
+        } else {
+            ctx.getSource().sendFailure(Component.literal("Hold a Kill Wand to set its purge filter"));
+            return 0;
+        }
+    }
+
+    private static int setPurgeProtected(CommandContext<CommandSourceStack> ctx, boolean include) throws CommandSyntaxException {
+        var stack = ctx.getSource().getPlayerOrException().getMainHandItem();
+
+        if (stack.getItem() instanceof KillWand) {
+            KillWand.setPurgingProtected(stack, include);
+            ctx.getSource().sendSuccess(() -> Component.literal(include ? "Kill Wand now also purges decorations, pets and named entities" : "Kill Wand now spares decorations, pets and named entities"), false);
+            return 1;
+        } else {
+            ctx.getSource().sendFailure(Component.literal("Hold a Kill Wand to set whether it purges protected entities"));
+            return 0;
+        }
+    }
+
+    @FunctionalInterface
+    private interface SelectionEdit {
+        Selection apply(Selection selection, Direction direction, int amount);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 thedarkcolour
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ */
+
+package thedarkcolour.modkit;
+
+import net.minecraftforge.common.ForgeConfigSpec;
+
+/**
+ * Server config for ModKit's wands. Values are per-world and only available while a server is running.
+ */
+public final class MKConfig {
+    public static final ForgeConfigSpec SERVER_SPEC;
+
+    public static final ForgeConfigSpec.IntValue JOB_BLOCKS_PER_TICK;
+    public static final ForgeConfigSpec.IntValue JOB_MICROS_PER_TICK;
+    public static final ForgeConfigSpec.IntValue PASTE_MAX_CHUNKS;
+    public static final ForgeConfigSpec.IntValue PURGE_ENTITIES_PER_TICK;
+    public static final ForgeConfigSpec.IntValue FLOOD_FILL_MAX_BLOCKS;
+    public static final ForgeConfigSpec.IntValue FLOOD_FILL_RADIUS;
+
+    public static final ForgeConfigSpec.IntValue UNDO_HISTORY_SIZE;
+    public static final ForgeConfigSpec.IntValue UNDO_MEMORY_BUDGET;
+    public static final ForgeConfigSpec.IntValue UNDO_PLAYER_LIMIT;
+
+    public static final ForgeConfigSpec.IntValue CLIPBOARD_MAX_VOLUME;
+    public static final ForgeConfigSpec.BooleanValue CLIPBOARD_ENTITIES;
+    public static final ForgeConfigSpec.IntValue CLIPBOARD_PREVIEW_VOLUME;
+    public static final ForgeConfigSpec.IntValue IDLE_TIMEOUT;
+
+    static {
+        var builder = new ForgeConfigSpec.Builder();
+
+        builder.comment("Large wand operations are split into jobs which run over several ticks.").push("jobs");
+        JOB_BLOCKS_PER_TICK = builder
+                .comment("Maximum number of blocks processed per tick, shared between all players' jobs")
+                .defineInRange("blocksPerTick", 65536, 1, Integer.MAX_VALUE);
+        JOB_MICROS_PER_TICK = builder
+                .comment("Maximum time in microseconds spent on jobs per tick, shared between all players' jobs")
+                .defineInRange("microsPerTick", 15000, 100, 1000000);
+        PASTE_MAX_CHUNKS = builder
+                .comment("Maximum number of chunks a single paste keeps loaded while waiting for them to load or generate")
+                .defineInRange("pasteMaxChunks", 64, 1, 4096);
+        PURGE_ENTITIES_PER_TICK = builder
+                .comment("Maximum number of entities killed per tick by a single Kill Wand purge")
+                .defineInRange("purgeEntitiesPerTick", 128, 1, 65536);
+        FLOOD_FILL_MAX_BLOCKS = builder
+                .comment("Maximum number of blocks replaced by a single connected fill")
+                .defineInRange("floodFillMaxBlocks", 1 << 18, 1, 1 << 24);
+        FLOOD_FILL_RADIUS = builder
+                .comment("Maximum distance along each axis from the clicked block that a connected fill can reach")
+                .defineInRange("floodFillRadius", 128, 1, 256);
+        builder.pop();
+
+        builder.comment("Undo history is shared between all wands. Old snapshots are moved to disk once the memory budget is used up.").push("undo");
+        UNDO_HISTORY_SIZE = builder
+                .comment("Maximum number of operations each player can undo")
+                .defineInRange("historySize", 32, 1, 1024);
+        UNDO_MEMORY_BUDGET = builder
+                .comment("Maximum memory in megabytes used by undo snapshots of all players before older snapshots are saved to disk")
+                .defineInRange("memoryBudget", 128, 0, 65536);
+        UNDO_PLAYER_LIMIT = builder
+                .comment("Maximum size in megabytes of a single player's undo history, in memory or on disk. Oldest operations are forgotten first")
+                .defineInRange("playerLimit", 512, 1, 65536);
+        builder.pop();
+
+        builder.comment("Per-player wand data such as undo history and clipboards.").push("players");
+        CLIPBOARD_MAX_VOLUME = builder
+                .comment("Maximum number of blocks that can be copied with the Clone Wand")
+                .defineInRange("clipboardMaxVolume", 256 * 256 * 256, 1, Integer.MAX_VALUE);
+        CLIPBOARD_ENTITIES = builder
+                .comment("Whether the Clone Wand also copies entities other than players. Pasted entities are not removed by undo")
+                .define("clipboardEntities", false);
+        CLIPBOARD_PREVIEW_VOLUME = builder
+                .comment("Maximum number of blocks in a clipboard sent to the player's client to preview pastes, or 0 to never send previews")
+                .defineInRange("clipboardPreviewVolume", 128 * 128 * 128, 0, 256 * 256 * 64);
+        IDLE_TIMEOUT = builder
+                .comment("Minutes after which an unused undo history or clipboard is forgotten, or 0 to keep them until logout")
+                .defineInRange("idleTimeout", 60, 0, 100000);
+        builder.pop();
+
+        SERVER_SPEC = builder.build();
+    }
+
+    private MKConfig() {
+    }
+}
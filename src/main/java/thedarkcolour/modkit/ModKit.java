@@ -24,9 +24,14 @@ import net.minecraft.world.item.CreativeModeTabs;
 import net.minecraft.world.item.Item;
 import net.minecraft.world.item.ItemStack;
 import net.minecraft.world.item.Rarity;
+import net.minecraftforge.api.distmarker.Dist;
+import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.event.BuildCreativeModeTabContentsEvent;
 import net.minecraftforge.eventbus.api.EventPriority;
+import net.minecraftforge.fml.DistExecutor;
+import net.minecraftforge.fml.ModLoadingContext;
 import net.minecraftforge.fml.common.Mod;
+import net.minecraftforge.fml.config.ModConfig;
 import net.minecraftforge.fml.event.lifecycle.FMLLoadCompleteEvent;
 import net.minecraftforge.fml.javafmlmod.FMLJavaModLoadingContext;
 import net.minecraftforge.registries.DeferredRegister;
@@ -34,11 +39,19 @@ import net.minecraftforge.registries.ForgeRegistries;
 import net.minecraftforge.registries.RegistryObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import thedarkcolour.modkit.client.ClipboardPreview;
+import thedarkcolour.modkit.client.SelectionRenderer;
 import thedarkcolour.modkit.item.ClearWandItem;
 import thedarkcolour.modkit.item.CloneWandItem;
 import thedarkcolour.modkit.item.DistanceWandItem;
 import thedarkcolour.modkit.item.FillWandItem;
 import thedarkcolour.modkit.item.KillWand;
+import thedarkcolour.modkit.network.MKNetwork;
+import thedarkcolour.modkit.wand.JobScheduler;
+import thedarkcolour.modkit.wand.LoadedChunks;
+import thedarkcolour.modkit.wand.TickProfiler;
+import thedarkcolour.modkit.wand.UndoHistory;
+import thedarkcolour.modkit.wand.WandSession;
 
 @Mod(ModKit.ID)
 public class ModKit {
@@ -76,6 +89,24 @@ public class ModKit {
         modBus.addListener(ModKit::postRegistry);
         modBus.addListener(ModKitDataGen::gatherData);
         modBus.addListener(EventPriority.LOWEST, ModKit::postCreativeTabs);
+        ModLoadingContext.get().registerConfig(ModConfig.Type.SERVER, MKConfig.SERVER_SPEC);
+        MKNetwork.register();
+
+        var forgeBus = MinecraftForge.EVENT_BUS;
+        forgeBus.addListener(MKCommands::registerCommands);
+        forgeBus.addListener(JobScheduler::onServerTick);
+        forgeBus.addListener(TickProfiler::onLevelTick);
+        forgeBus.addListener(TickProfiler::onPlayerLogout);
+        forgeBus.addListener(TickProfiler::onServerStopping);
+        forgeBus.addListener(WandSession::onServerTick);
+        forgeBus.addListener(WandSession::onPlayerLogout);
+        forgeBus.addListener(WandSession::onServerStopping);
+        forgeBus.addListener(UndoHistory::onServerStarting);
+        forgeBus.addListener(LoadedChunks::onChunkLoad);
+        forgeBus.addListener(LoadedChunks::onChunkUnload);
+        forgeBus.addListener(LoadedChunks::onLevelUnload);
+        DistExecutor.unsafeRunWhenOn(Dist.CLIENT, () -> SelectionRenderer::register);
+        DistExecutor.unsafeRunWhenOn(Dist.CLIENT, () -> ClipboardPreview::register);
     }
 
     private static void postRegistry(FMLLoadCompleteEvent event) {
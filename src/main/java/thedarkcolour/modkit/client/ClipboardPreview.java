@@ -0,0 +1,292 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 thedarkcolour
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ */
+
+package thedarkcolour.modkit.client;
+
+import com.mojang.blaze3d.systems.RenderSystem;
+import com.mojang.blaze3d.vertex.BufferBuilder;
+import com.mojang.blaze3d.vertex.DefaultVertexFormat;
+import com.mojang.blaze3d.vertex.VertexBuffer;
+import com.mojang.blaze3d.vertex.VertexFormat;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.renderer.GameRenderer;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Direction;
+import net.minecraft.world.level.EmptyBlockGetter;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+import net.minecraft.world.phys.AABB;
+import net.minecraft.world.phys.BlockHitResult;
+import net.minecraft.world.phys.HitResult;
+import net.minecraftforge.client.event.ClientPlayerNetworkEvent;
+import net.minecraftforge.client.event.RenderLevelStageEvent;
+import net.minecraftforge.common.MinecraftForge;
+import org.jetbrains.annotations.Nullable;
+import thedarkcolour.modkit.item.CloneWandItem;
+
+/**
+ * Shows a translucent ghost of the clipboard where the Clone Wand would paste it, while the player holds
+ * the wand and looks at a block. Blocks are drawn as boxes coloured by their map colour.
+ * <p>
+ * The clipboard is split into 16x16x16 cells which are meshed into vertex buffers the first time they are
+ * visible, and kept until the server sends a new clipboard or transform. Cells outside the frustum are
+ * skipped, and cells further than {@link #LOD_DISTANCE} blocks use a coarser mesh of 4x4x4 boxes. Only a
+ * few cells are meshed per frame, so large clipboards fill in over a few frames instead of stuttering.
+ */
+public final class ClipboardPreview {
+    private static final int CELL_SIZE = 16;
+    private static final int LOD_SCALE = 4;
+    private static final double LOD_DISTANCE = 64;
+    private static final int MAX_BUILDS_PER_FRAME = 4;
+    private static final float ALPHA = 0.4f;
+    // corners of each face of a unit cube, indexed by Direction.get3DDataValue()
+    private static final int[][] FACES = {
+            {0, 0, 0, 1, 0, 0, 1, 0, 1, 0, 0, 1},
+            {0, 1, 0, 0, 1, 1, 1, 1, 1, 1, 1, 0},
+            {0, 0, 0, 0, 1, 0, 1, 1, 0, 1, 0, 0},
+            {0, 0, 1, 1, 0, 1, 1, 1, 1, 0, 1, 1},
+            {0, 0, 0, 0, 0, 1, 0, 1, 1, 0, 1, 0},
+            {1, 0, 0, 1, 1, 0, 1, 1, 1, 1, 0, 1},
+    };
+    // same shading as vanilla's diffuse lighting, so faces can be told apart
+    private static final float[] SHADE = {0.5f, 1.0f, 0.8f, 0.8f, 0.6f, 0.6f};
+
+    @Nullable
+    private static BoundingBox box;
+    private static BlockState[] palette = new BlockState[0];
+    // palette index of each position in y-z-x order, 0 is empty
+    private static short[] blocks = new short[0];
+    private static Cell[] cells = new Cell[0];
+    @Nullable
+    private static BufferBuilder builder;
+
+    public static void register() {
+        var forgeBus = MinecraftForge.EVENT_BUS;
+        forgeBus.addListener(ClipboardPreview::renderPreview);
+        forgeBus.addListener(ClipboardPreview::onLoggingOut);
+    }
+
+    /**
+     * Replaces the previewed clipboard, freeing the meshes of the old one. Must be called on the render thread.
+     */
+    public static void setPreview(@Nullable BoundingBox box, BlockState[] palette, short[] blocks) {
+        for (var cell : cells) {
+            cell.close();
+        }
+
+        ClipboardPreview.box = box;
+        ClipboardPreview.palette = palette;
+        ClipboardPreview.blocks = blocks;
+
+        if (box == null) {
+            cells = new Cell[0];
+        } else {
+            int cellsX = (box.getXSpan() + CELL_SIZE - 1) / CELL_SIZE;
+            int cellsY = (box.getYSpan() + CELL_SIZE - 1) / CELL_SIZE;
+            int cellsZ = (box.getZSpan() + CELL_SIZE - 1) / CELL_SIZE;
+            cells = new Cell[cellsX * cellsY * cellsZ];
+
+            var i = 0;
+            for (int y = 0; y < cellsY; y++) {
+                for (int z = 0; z < cellsZ; z++) {
+                    for (int x = 0; x < cellsX; x++) {
+                        int minX = x * CELL_SIZE, minY = y * CELL_SIZE, minZ = z * CELL_SIZE;
+                        cells[i++] = new Cell(minX, minY, minZ,
+                                Math.min(CELL_SIZE, box.getXSpan() - minX), Math.min(CELL_SIZE, box.getYSpan() - minY), Math.min(CELL_SIZE, box.getZSpan() - minZ));
+                    }
+                }
+            }
+        }
+    }
+
+    private static void renderPreview(RenderLevelStageEvent event) {
+        if (event.getStage() != RenderLevelStageEvent.Stage.AFTER_TRANSLUCENT_BLOCKS) return;
+
+        var box = ClipboardPreview.box;
+        var mc = Minecraft.getInstance();
+        var player = mc.player;
+        if (box == null || player == null || player.isShiftKeyDown() || !(player.getMainHandItem().getItem() instanceof CloneWandItem)) return;
+        if (!(mc.hitResult instanceof BlockHitResult hit) || hit.getType() != HitResult.Type.BLOCK) return;
+
+        var shader = GameRenderer.getPositionColorShader();
+        if (shader == null) return;
+
+        var anchor = hit.getBlockPos();
+        var camera = event.getCamera().getPosition();
+        var frustum = event.getFrustum();
+        var poseStack = event.getPoseStack();
+        var builds = 0;
+
+        RenderSystem.enableBlend();
+        RenderSystem.defaultBlendFunc();
+        RenderSystem.disableCull();
+        RenderSystem.depthMask(false);
+
+        for (var cell : cells) {
+            double minX = anchor.getX() + box.minX() + cell.x, minY = anchor.getY() + box.minY() + cell.y, minZ = anchor.getZ() + box.minZ() + cell.z;
+            double maxX = minX + cell.sizeX, maxY = minY + cell.sizeY, maxZ = minZ + cell.sizeZ;
+            if (!frustum.isVisible(new AABB(minX, minY, minZ, maxX, maxY, maxZ))) continue;
+
+            // distance from the camera to the closest point of the cell
+            double dx = Math.max(0, Math.max(minX - camera.x, camera.x - maxX));
+            double dy = Math.max(0, Math.max(minY - camera.y, camera.y - maxY));
+            double dz = Math.max(0, Math.max(minZ - camera.z, camera.z - maxZ));
+            var coarse = dx * dx + dy * dy + dz * dz > LOD_DISTANCE * LOD_DISTANCE;
+
+            if (!cell.isBuilt(coarse)) {
+                if (builds++ >= MAX_BUILDS_PER_FRAME) continue;
+                cell.build(coarse);
+            }
+            var buffer = cell.getBuffer(coarse);
+            if (buffer == null) continue;
+
+            poseStack.pushPose();
+            poseStack.translate(minX - camera.x, minY - camera.y, minZ - camera.z);
+            buffer.bind();
+            buffer.drawWithShader(poseStack.last().pose(), event.getProjectionMatrix(), shader);
+            poseStack.popPose();
+        }
+
+        VertexBuffer.unbind();
+        RenderSystem.depthMask(true);
+        RenderSystem.enableCull();
+        RenderSystem.disableBlend();
+    }
+
+    private static void onLoggingOut(ClientPlayerNetworkEvent.LoggingOut event) {
+        setPreview(null, new BlockState[0], new short[0]);
+    }
+
+    // palette index at a position relative to the box, or 0 outside of it
+    private static int getBlock(int x, int y, int z) {
+        var box = ClipboardPreview.box;
+        if (box == null || x < 0 || y < 0 || z < 0 || x >= box.getXSpan() || y >= box.getYSpan() || z >= box.getZSpan()) {
+            return 0;
+        }
+        return blocks[(y * box.getZSpan() + z) * box.getXSpan() + x];
+    }
+
+    // first non-empty palette index in a cube of LOD_SCALE blocks, or 0 if it is empty
+    private static int getCoarseBlock(int x, int y, int z) {
+        for (int j = 0; j < LOD_SCALE; j++) {
+            for (int k = 0; k < LOD_SCALE; k++) {
+                for (int i = 0; i < LOD_SCALE; i++) {
+                    var block = getBlock(x + i, y + j, z + k);
+                    if (block != 0) {
+                        return block;
+                    }
+                }
+            }
+        }
+        return 0;
+    }
+
+    private static final class Cell {
+        // position relative to the box, and size in blocks
+        final int x, y, z;
+        final int sizeX, sizeY, sizeZ;
+        @Nullable
+        private VertexBuffer mesh, coarseMesh;
+        private boolean built, coarseBuilt;
+
+        Cell(int x, int y, int z, int sizeX, int sizeY, int sizeZ) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.sizeX = sizeX;
+            this.sizeY = sizeY;
+            this.sizeZ = sizeZ;
+        }
+
+        boolean isBuilt(boolean coarse) {
+            return coarse ? this.coarseBuilt : this.built;
+        }
+
+        // null if the cell is empty or has not been built
+        @Nullable
+        VertexBuffer getBuffer(boolean coarse) {
+            return coarse ? this.coarseMesh : this.mesh;
+        }
+
+        void build(boolean coarse) {
+            var scale = coarse ? LOD_SCALE : 1;
+            if (builder == null) {
+                builder = new BufferBuilder(1 << 16);
+            }
+            builder.begin(VertexFormat.Mode.QUADS, DefaultVertexFormat.POSITION_COLOR);
+            var faces = 0;
+
+            for (int y = 0; y < this.sizeY; y += scale) {
+                for (int z = 0; z < this.sizeZ; z += scale) {
+                    for (int x = 0; x < this.sizeX; x += scale) {
+                        int bx = this.x + x, by = this.y + y, bz = this.z + z;
+                        var block = coarse ? getCoarseBlock(bx, by, bz) : getBlock(bx, by, bz);
+                        if (block == 0) continue;
+
+                        var color = palette[block].getMapColor(EmptyBlockGetter.INSTANCE, BlockPos.ZERO).col;
+                        if (color == 0) {
+                            color = 0xFFFFFF;
+                        }
+
+                        for (var direction : Direction.values()) {
+                            int nx = bx + direction.getStepX() * scale, ny = by + direction.getStepY() * scale, nz = bz + direction.getStepZ() * scale;
+                            // only faces exposed to empty space are meshed
+                            if ((coarse ? getCoarseBlock(nx, ny, nz) : getBlock(nx, ny, nz)) != 0) continue;
+
+                            var shade = SHADE[direction.get3DDataValue()];
+                            float red = (color >> 16 & 0xFF) / 255.0f * shade, green = (color >> 8 & 0xFF) / 255.0f * shade, blue = (color & 0xFF) / 255.0f * shade;
+                            var corners = FACES[direction.get3DDataValue()];
+                            for (int i = 0; i < 12; i += 3) {
+                                builder.vertex(x + corners[i] * scale, y + corners[i + 1] * scale, z + corners[i + 2] * scale).color(red, green, blue, ALPHA).endVertex();
+                            }
+                            faces++;
+                        }
+                    }
+                }
+            }
+
+            var rendered = builder.end();
+            if (faces == 0) {
+                rendered.release();
+            } else {
+                var buffer = new VertexBuffer(VertexBuffer.Usage.STATIC);
+                buffer.bind();
+                buffer.upload(rendered);
+                VertexBuffer.unbind();
+
+                if (coarse) {
+                    this.coarseMesh = buffer;
+                } else {
+                    this.mesh = buffer;
+                }
+            }
+            if (coarse) {
+                this.coarseBuilt = true;
+            } else {
+                this.built = true;
+            }
+        }
+
+        void close() {
+            if (this.mesh != null) {
+                this.mesh.close();
+            }
+            if (this.coarseMesh != null) {
+                this.coarseMesh.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 thedarkcolour
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ */
+
+package thedarkcolour.modkit.client;
+
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.renderer.LevelRenderer;
+import net.minecraft.client.renderer.RenderType;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+import net.minecraftforge.client.event.ClientPlayerNetworkEvent;
+import net.minecraftforge.client.event.RenderLevelStageEvent;
+import net.minecraftforge.common.MinecraftForge;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Draws the outline of the player's wand selection, as sent by the server. A pending selection is drawn
+ * in yellow and the last completed selection in blue.
+ */
+public final class SelectionRenderer {
+    // pushes the outline just outside the selected blocks so it does not flicker against their faces
+    private static final double INFLATE = 0.002;
+
+    @Nullable
+    private static ResourceKey<Level> dimension;
+    @Nullable
+    private static BoundingBox box;
+    private static boolean pending;
+
+    public static void register() {
+        var forgeBus = MinecraftForge.EVENT_BUS;
+        forgeBus.addListener(SelectionRenderer::renderSelection);
+        forgeBus.addListener(SelectionRenderer::onLoggingOut);
+    }
+
+    public static void setSelection(@Nullable ResourceKey<Level> dimension, @Nullable BoundingBox box, boolean pending) {
+        SelectionRenderer.dimension = dimension;
+        SelectionRenderer.box = box;
+        SelectionRenderer.pending = pending;
+    }
+
+    /**
+     * @return Whether the player has a pending corner in the dimension they are in, which wands show with a "*" after their name
+     */
+    public static boolean isPending() {
+        var level = Minecraft.getInstance().level;
+        return pending && box != null && level != null && level.dimension() == dimension;
+    }
+
+    private static void renderSelection(RenderLevelStageEvent event) {
+        if (event.getStage() != RenderLevelStageEvent.Stage.AFTER_TRANSLUCENT_BLOCKS) return;
+
+        var box = SelectionRenderer.box;
+        var level = Minecraft.getInstance().level;
+        if (box == null || level == null || level.dimension() != dimension) return;
+
+        var camera = event.getCamera().getPosition();
+        var buffers = Minecraft.getInstance().renderBuffers().bufferSource();
+        var consumer = buffers.getBuffer(RenderType.lines());
+        float red = pending ? 1.0f : 0.3f;
+        float green = pending ? 0.8f : 0.6f;
+        float blue = pending ? 0.2f : 1.0f;
+
+        LevelRenderer.renderLineBox(event.getPoseStack(), consumer,
+                box.minX() - INFLATE - camera.x, box.minY() - INFLATE - camera.y, box.minZ() - INFLATE - camera.z,
+                box.maxX() + 1 + INFLATE - camera.x, box.maxY() + 1 + INFLATE - camera.y, box.maxZ() + 1 + INFLATE - camera.z,
+                red, green, blue, 1.0f);
+        buffers.endBatch(RenderType.lines());
+    }
+
+    private static void onLoggingOut(ClientPlayerNetworkEvent.LoggingOut event) {
+        setSelection(null, null, false);
+    }
+}
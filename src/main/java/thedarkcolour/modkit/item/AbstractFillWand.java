@@ -16,12 +16,14 @@
 
 package thedarkcolour.modkit.item;
 
-import com.google.common.collect.ImmutableMap;
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
 import net.minecraft.ChatFormatting;
 import net.minecraft.core.BlockPos;
-import net.minecraft.nbt.NbtUtils;
+import net.minecraft.nbt.Tag;
 import net.minecraft.network.chat.Component;
 import net.minecraft.network.chat.MutableComponent;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.server.level.ServerPlayer;
 import net.minecraft.world.InteractionHand;
 import net.minecraft.world.InteractionResult;
 import net.minecraft.world.InteractionResultHolder;
@@ -34,47 +36,131 @@ import net.minecraft.world.item.UseAnim;
 import net.minecraft.world.item.context.UseOnContext;
 import net.minecraft.world.level.Level;
 import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+import net.minecraftforge.api.distmarker.Dist;
+import net.minecraftforge.fml.DistExecutor;
 import org.jetbrains.annotations.Nullable;
+import thedarkcolour.modkit.MKConfig;
+import thedarkcolour.modkit.client.SelectionRenderer;
+import thedarkcolour.modkit.network.MKNetwork;
+import thedarkcolour.modkit.wand.BlockSnapshot;
+import thedarkcolour.modkit.wand.FillJob;
+import thedarkcolour.modkit.wand.FillPattern;
+import thedarkcolour.modkit.wand.FloodFillJob;
+import thedarkcolour.modkit.wand.JobScheduler;
+import thedarkcolour.modkit.wand.ReplaceMask;
+import thedarkcolour.modkit.wand.Selection;
+import thedarkcolour.modkit.wand.Shape;
+import thedarkcolour.modkit.wand.UndoHistory;
+import thedarkcolour.modkit.wand.WandSession;
 
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 public abstract class AbstractFillWand extends Item {
-    protected final Map<Player, Map<BlockPos, BlockState>> undoMap = new HashMap<>();
-
     public AbstractFillWand(Properties pProperties) {
         super(pProperties);
     }
 
     protected abstract MutableComponent getFillMessage();
 
-    protected void fill(ItemStack stack, BlockState state, BlockPos pos, Level level, @Nullable Player player) {
-        var startPosNbt = stack.getTagElement("StartPos");
-        if (startPosNbt != null) {
-            var startPos = NbtUtils.readBlockPos(startPosNbt);
-            var builder = ImmutableMap.<BlockPos, BlockState>builder();
+    protected void fill(ItemStack stack, BlockState state, BoundingBox box, Level level, Player player) {
+        fill(stack, FillPattern.of(state), box, level, player);
+    }
 
-            for (var blockPos : BlockPos.betweenClosed(startPos, pos)) {
-                var immutable = blockPos.immutable();
-                builder.put(immutable, level.getBlockState(immutable));
-                level.setBlock(immutable, state, 2);
+    protected void fill(ItemStack stack, FillPattern pattern, BoundingBox box, Level level, Player player) {
+        if (level instanceof ServerLevel serverLevel) {
+            if (BlockSnapshot.isTooLarge(box)) {
+                player.displayClientMessage(Component.literal("Selection is too large"), true);
+                return;
             }
+            ReplaceMask mask = null;
+            var maskString = getMask(stack);
+            if (maskString != null) {
+                try {
+                    mask = ReplaceMask.parse(maskString);
+                } catch (CommandSyntaxException e) {
+                    player.displayClientMessage(Component.literal("Invalid mask: " + e.getMessage()), true);
+                    return;
+                }
+            }
+            var owner = player.getUUID();
+            var session = WandSession.get(owner);
+            var history = session.getHistory();
+            var message = getFillMessage().append(String.format("(%d %d %d) to (%d %d %d)", box.minX(), box.minY(), box.minZ(), box.maxX(), box.maxY(), box.maxZ()));
 
-            if (player != null) {
-                undoMap.put(player, builder.build());
+            JobScheduler.submit(new FillJob(serverLevel, owner, box, getShape(stack), pattern, mask, session.getWriteMode(), undo -> history.push(serverLevel, undo), message));
+        }
+    }
 
-                player.displayClientMessage(getFillMessage().append(String.format("(%d %d %d) to (%d %d %d)", startPos.getX(), startPos.getY(), startPos.getZ(), pos.getX(), pos.getY(), pos.getZ())), true);
-            }
-            stack.removeTagKey("StartPos");
+    /**
+     * Replaces the blocks connected to the clicked block which have the same state, up to the limits from {@link MKConfig}.
+     */
+    protected void floodFill(FillPattern pattern, BlockPos pos, Level level, Player player) {
+        if (level instanceof ServerLevel serverLevel) {
+            var radius = MKConfig.FLOOD_FILL_RADIUS.get();
+            var box = new BoundingBox(
+                    pos.getX() - radius, Math.max(level.getMinBuildHeight(), pos.getY() - radius), pos.getZ() - radius,
+                    pos.getX() + radius, Math.min(level.getMaxBuildHeight() - 1, pos.getY() + radius), pos.getZ() + radius
+            );
+            var owner = player.getUUID();
+            var session = WandSession.get(owner);
+            var history = session.getHistory();
+            var message = getFillMessage().append(String.format("(%d %d %d): ", pos.getX(), pos.getY(), pos.getZ()));
+
+            JobScheduler.submit(new FloodFillJob(serverLevel, owner, pos, box, MKConfig.FLOOD_FILL_MAX_BLOCKS.get(), pattern, session.getWriteMode(), undo -> history.push(serverLevel, undo), message));
         }
     }
 
-    protected void saveStartPos(ItemStack stack, BlockPos pos, @Nullable Player player) {
-        stack.addTagElement("StartPos", NbtUtils.writeBlockPos(pos));
-        if (player != null) {
+    /**
+     * Clicks a corner of the player's selection, which is shared by all wands.
+     *
+     * @return The completed selection, or null if the click started a new selection
+     */
+    @Nullable
+    static BoundingBox select(Level level, BlockPos pos, Player player) {
+        var selection = WandSession.get(player.getUUID()).updateSelection(current -> current.click(level.dimension(), pos));
+        var box = selection.isPending() ? null : selection.getBox();
+        if (box == null) {
             player.displayClientMessage(Component.literal(String.format("Starting position: %d %d %d", pos.getX(), pos.getY(), pos.getZ())), true);
         }
+        if (player instanceof ServerPlayer serverPlayer) {
+            MKNetwork.sendSelection(serverPlayer, selection);
+        }
+        return box;
+    }
+
+    /**
+     * @return The shape this wand fills its selection with, a cuboid by default
+     */
+    public static Shape getShape(ItemStack stack) {
+        var tag = stack.getTag();
+        var shape = tag == null ? null : Shape.byName(tag.getString("Shape"));
+        return shape == null ? Shape.CUBOID : shape;
+    }
+
+    public static void setShape(ItemStack stack, Shape shape) {
+        if (shape == Shape.CUBOID) {
+            stack.removeTagKey("Shape");
+        } else {
+            stack.getOrCreateTag().putString("Shape", shape.getName());
+        }
+    }
+
+    /**
+     * @return The mask restricting which blocks this wand replaces, or null to replace everything
+     */
+    @Nullable
+    public static String getMask(ItemStack stack) {
+        var tag = stack.getTag();
+        return tag != null && tag.contains("Mask", Tag.TAG_STRING) ? tag.getString("Mask") : null;
+    }
+
+    public static void setMask(ItemStack stack, @Nullable String mask) {
+        if (mask == null) {
+            stack.removeTagKey("Mask");
+        } else {
+            stack.getOrCreateTag().putString("Mask", mask);
+        }
     }
 
     @Override
@@ -90,18 +176,39 @@ public abstract class AbstractFillWand extends Item {
     @Override
     public InteractionResultHolder<ItemStack> use(Level pLevel, Player pPlayer, InteractionHand hand) {
         if (!pLevel.isClientSide) {
+            var session = WandSession.getIfPresent(pPlayer.getUUID());
+            var history = session == null ? null : session.getHistory();
+
             if (pPlayer.isShiftKeyDown()) {
-                pPlayer.getItemInHand(hand).removeTagKey("StartPos");
-                pPlayer.displayClientMessage(Component.literal("Cleared start position"), true);
-            } else if (undoMap.get(pPlayer) != null) {
-                pPlayer.displayClientMessage(Component.literal("Hold to undo"), true);
-                pPlayer.startUsingItem(hand);
+                // cancelled jobs report their own message
+                if (!JobScheduler.cancel(pPlayer.getUUID())) {
+                    if (session != null && session.getSelection().isPending()) {
+                        var selection = session.updateSelection(Selection::cancelPending);
+                        pPlayer.displayClientMessage(Component.literal("Cleared start position"), true);
+                        if (pPlayer instanceof ServerPlayer serverPlayer) {
+                            MKNetwork.sendSelection(serverPlayer, selection);
+                        }
+                    } else if (history != null && history.canRedo()) {
+                        startHolding(pPlayer, hand, "Hold to redo");
+                    }
+                }
+            } else if (history != null && history.canUndo()) {
+                startHolding(pPlayer, hand, "Hold to undo");
             }
         }
 
         return InteractionResultHolder.pass(pPlayer.getItemInHand(hand));
     }
 
+    private static void startHolding(Player player, InteractionHand hand, String message) {
+        if (JobScheduler.isBusy(player.getUUID())) {
+            player.displayClientMessage(Component.literal("Wait for the current operation to finish"), true);
+        } else {
+            player.displayClientMessage(Component.literal(message), true);
+            player.startUsingItem(hand);
+        }
+    }
+
     @Override
     public InteractionResult useOn(UseOnContext context) {
         var level = context.getLevel();
@@ -123,15 +230,15 @@ public abstract class AbstractFillWand extends Item {
 
     @Override
     public ItemStack finishUsingItem(ItemStack stack, Level level, LivingEntity entity) {
-        if (entity instanceof Player player) {
-            var undoBlocks = undoMap.get(player);
+        if (entity instanceof ServerPlayer player) {
+            var history = UndoHistory.getIfPresent(player.getUUID());
 
-            if (undoBlocks != null) {
-                for (var entry : undoBlocks.entrySet()) {
-                    level.setBlock(entry.getKey(), entry.getValue(), 2);
+            if (history != null && !JobScheduler.isBusy(player.getUUID())) {
+                if (player.isShiftKeyDown()) {
+                    history.redo(player);
+                } else {
+                    history.undo(player);
                 }
-                player.displayClientMessage(Component.literal("Undo!"), true);
-                undoMap.remove(player);
             }
         }
 
@@ -139,18 +246,23 @@ public abstract class AbstractFillWand extends Item {
     }
 
     @Override
-    public void appendHoverText(ItemStack stack, @Nullable Level level, List<Component> tooltip, TooltipFlag advanced) {
-        var startPosNbt = stack.getTagElement("StartPos");
-        if (startPosNbt != null) {
-            var startPos = NbtUtils.readBlockPos(startPosNbt);
-            tooltip.add(Component.literal("Start Position: (" + startPos.getX() + ", " + startPos.getY() + ", " + startPos.getZ() + ")"));
-        } else {
-            tooltip.add(Component.literal("Tip: Hold sneak click in the air to undo last operation").withStyle(ChatFormatting.DARK_GRAY));
-        }
+    public Component getName(ItemStack stack) {
+        // the selection lives on the server, clients know about the pending corner from the last SelectionPacket
+        var pending = DistExecutor.unsafeCallWhenOn(Dist.CLIENT, () -> SelectionRenderer::isPending);
+        return Boolean.TRUE.equals(pending) ? Component.translatable(this.getDescriptionId(stack)).append("*") : super.getName(stack);
     }
 
     @Override
-    public Component getName(ItemStack stack) {
-        return stack.getTagElement("StartPos") == null ? super.getName(stack) : Component.translatable(this.getDescriptionId(stack)).append("*");
+    public void appendHoverText(ItemStack stack, @Nullable Level level, List<Component> tooltip, TooltipFlag advanced) {
+        var shape = getShape(stack);
+        if (shape != Shape.CUBOID) {
+            tooltip.add(Component.literal("Shape: ").append(Component.literal(shape.getName()).withStyle(ChatFormatting.YELLOW)));
+        }
+        var mask = getMask(stack);
+        if (mask != null) {
+            tooltip.add(Component.literal("Mask: ").append(Component.literal(mask).withStyle(ChatFormatting.YELLOW)));
+        }
+
+        tooltip.add(Component.literal("Tip: Hold use in the air to undo last operation, sneak to redo").withStyle(ChatFormatting.DARK_GRAY));
     }
 }
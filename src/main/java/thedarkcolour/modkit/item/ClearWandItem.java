@@ -25,6 +25,8 @@ import net.minecraft.world.item.TooltipFlag;
 import net.minecraft.world.level.Level;
 import net.minecraft.world.level.block.Blocks;
 import org.jetbrains.annotations.Nullable;
+import thedarkcolour.modkit.wand.FillPattern;
+import thedarkcolour.modkit.wand.Shape;
 
 import java.util.List;
 
@@ -40,11 +42,15 @@ public class ClearWandItem extends AbstractFillWand {
 
     @Override
     protected void handleUse(Level level, ItemStack stack, BlockPos pos, Player player) {
-        if (stack.getTagElement("StartPos") == null) {
-            saveStartPos(stack, pos, player);
-        } else {
+        if (getShape(stack) == Shape.CONNECTED) {
             player.getCooldowns().addCooldown(this, 5);
-            fill(stack, Blocks.AIR.defaultBlockState(), pos, level, player);
+            floodFill(FillPattern.of(Blocks.AIR.defaultBlockState()), pos, level, player);
+        } else {
+            var box = select(level, pos, player);
+            if (box != null) {
+                player.getCooldowns().addCooldown(this, 5);
+                fill(stack, Blocks.AIR.defaultBlockState(), box, level, player);
+            }
         }
     }
 
@@ -16,22 +16,24 @@
 
 package thedarkcolour.modkit.item;
 
-import com.google.common.collect.ImmutableMap;
 import net.minecraft.core.BlockPos;
-import net.minecraft.nbt.NbtUtils;
 import net.minecraft.network.chat.Component;
 import net.minecraft.network.chat.MutableComponent;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.server.level.ServerPlayer;
 import net.minecraft.world.entity.player.Player;
 import net.minecraft.world.item.ItemStack;
 import net.minecraft.world.level.Level;
-import net.minecraft.world.level.block.state.BlockState;
-
-import java.util.HashMap;
-import java.util.Map;
+import thedarkcolour.modkit.MKConfig;
+import thedarkcolour.modkit.network.MKNetwork;
+import thedarkcolour.modkit.wand.BlockSnapshot;
+import thedarkcolour.modkit.wand.CopyJob;
+import thedarkcolour.modkit.wand.JobScheduler;
+import thedarkcolour.modkit.wand.PasteJob;
+import thedarkcolour.modkit.wand.TransformedClipboard;
+import thedarkcolour.modkit.wand.WandSession;
 
 public class CloneWandItem extends AbstractFillWand {
-    private final Map<Player, ImmutableMap<BlockPos, BlockState>> structureMap = new HashMap<>();
-
     public CloneWandItem(Properties pProperties) {
         super(pProperties);
     }
@@ -43,38 +45,39 @@ public class CloneWandItem extends AbstractFillWand {
 
     @Override
     protected void handleUse(Level level, ItemStack stack, BlockPos pos, Player player) {
-        if (player.isShiftKeyDown()) {
-            var startPosNbt = stack.getTagElement("StartPos");
-            if (startPosNbt == null) {
-                saveStartPos(stack, pos, player);
-            } else {
-                var builder = ImmutableMap.<BlockPos, BlockState>builder();
-                var start = NbtUtils.readBlockPos(startPosNbt);
+        if (!(level instanceof ServerLevel serverLevel)) return;
+        var session = WandSession.get(player.getUUID());
+        var owner = session.getOwner();
 
-                for (var mutable : BlockPos.betweenClosed(start, pos)) {
-                    builder.put(mutable.subtract(start), level.getBlockState(mutable));
+        if (player.isShiftKeyDown()) {
+            var box = select(level, pos, player);
+            var origin = session.getSelection().getFirst();
+            if (box != null && origin != null) {
+                if (BlockSnapshot.isTooLarge(box) || box.getXSpan() * box.getYSpan() * box.getZSpan() > MKConfig.CLIPBOARD_MAX_VOLUME.get()) {
+                    player.displayClientMessage(Component.literal("Selection is too large"), true);
+                    return;
                 }
+                var message = Component.literal(String.format("Saved blocks from (%d %d %d) to (%d %d %d)", box.minX(), box.minY(), box.minZ(), box.maxX(), box.maxY(), box.maxZ()));
 
-                structureMap.put(player, builder.build());
-                player.displayClientMessage(Component.literal(String.format("Saved blocks from (%d %d %d) to (%d %d %d)", start.getX(), start.getY(), start.getZ(), pos.getX(), pos.getY(), pos.getZ())), true);
-                stack.removeTagKey("StartPos");
+                JobScheduler.submit(new CopyJob(serverLevel, owner, box, origin, clipboard -> {
+                    session.setClipboard(clipboard);
+                    if (player instanceof ServerPlayer serverPlayer) {
+                        MKNetwork.sendClipboardPreview(serverPlayer, session);
+                    }
+                }, message));
             }
         } else {
-            if (!structureMap.containsKey(player)) return;
-            var pos2BlockState = structureMap.get(player).entrySet();
-            var builder = ImmutableMap.<BlockPos, BlockState>builder();
-
-            for (var entry : pos2BlockState) {
-                var state = entry.getValue();
-                var posOffset = entry.getKey().offset(pos);
-                builder.put(posOffset, level.getBlockState(posOffset));
-
-                level.setBlockAndUpdate(posOffset, state);
+            var copied = session.getClipboard();
+            if (copied == null) return;
+            var clipboard = TransformedClipboard.of(copied, session.getTransform());
+            if (BlockSnapshot.isTooLarge(clipboard.box())) {
+                player.displayClientMessage(Component.literal("Clipboard is too large to paste"), true);
+                return;
             }
+            var message = Component.literal(String.format("Cloned structure anchored at (%d %d %d)", pos.getX(), pos.getY(), pos.getZ()));
 
-            undoMap.put(player, builder.build());
+            JobScheduler.submit(new PasteJob(serverLevel, owner, clipboard, pos, session.getWriteMode(), undo -> session.getHistory().push(serverLevel, undo), message));
             player.getCooldowns().addCooldown(this, 25);
-            player.displayClientMessage(Component.literal(String.format("Cloned structure anchored at (%d %d %d)", pos.getX(), pos.getY(), pos.getZ())), true);
         }
     }
 }
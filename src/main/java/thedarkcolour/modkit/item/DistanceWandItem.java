@@ -16,11 +16,23 @@
 
 package thedarkcolour.modkit.item;
 
-import net.minecraft.nbt.NbtUtils;
+import net.minecraft.ChatFormatting;
 import net.minecraft.network.chat.Component;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.InteractionHand;
 import net.minecraft.world.InteractionResult;
+import net.minecraft.world.InteractionResultHolder;
+import net.minecraft.world.entity.player.Player;
 import net.minecraft.world.item.Item;
+import net.minecraft.world.item.ItemStack;
+import net.minecraft.world.item.TooltipFlag;
 import net.minecraft.world.item.context.UseOnContext;
+import net.minecraft.world.level.Level;
+import org.jetbrains.annotations.Nullable;
+import thedarkcolour.modkit.wand.AnalyzeJob;
+import thedarkcolour.modkit.wand.JobScheduler;
+
+import java.util.List;
 
 public class DistanceWandItem extends Item {
     public DistanceWandItem(Properties pProperties) {
@@ -38,22 +50,53 @@ public class DistanceWandItem extends Item {
 
             if (player == null) return InteractionResult.PASS;
 
-            var startPosNbt = stack.getTagElement("StartPos");
-            if (startPosNbt != null) {
-                var start = NbtUtils.readBlockPos(startPosNbt);
-
-                var dx = pos.getX() == start.getX() ? 0 : Math.abs(pos.getX() - start.getX()) + 1;
-                var dy = pos.getY() == start.getY() ? 0 : Math.abs(pos.getY() - start.getY()) + 1;
-                var dz = pos.getZ() == start.getZ() ? 0 : Math.abs(pos.getZ() - start.getZ()) + 1;
+            var box = AbstractFillWand.select(level, pos, player);
+            if (box != null) {
+                var dx = box.getXSpan() == 1 ? 0 : box.getXSpan();
+                var dy = box.getYSpan() == 1 ? 0 : box.getYSpan();
+                var dz = box.getZSpan() == 1 ? 0 : box.getZSpan();
 
                 player.displayClientMessage(Component.literal(String.format("Distance (XYZ): (%d, %d, %d)", dx, dy, dz)), false);
-                stack.removeTagKey("StartPos");
-            } else {
-                stack.addTagElement("StartPos", NbtUtils.writeBlockPos(pos));
-                player.displayClientMessage(Component.literal(String.format("Measurement starting position: (%d %d %d)", pos.getX(), pos.getY(), pos.getZ())), true);
+
+                if (isAnalyzing(stack) && level instanceof ServerLevel serverLevel) {
+                    JobScheduler.submit(new AnalyzeJob(serverLevel, player.getUUID(), box));
+                }
             }
         }
 
         return InteractionResult.SUCCESS;
     }
+
+    @Override
+    public InteractionResultHolder<ItemStack> use(Level level, Player player, InteractionHand hand) {
+        var stack = player.getItemInHand(hand);
+
+        if (!level.isClientSide && player.isShiftKeyDown()) {
+            var analyzing = !isAnalyzing(stack);
+            if (analyzing) {
+                stack.getOrCreateTag().putBoolean("Analyze", true);
+            } else {
+                stack.removeTagKey("Analyze");
+            }
+            player.displayClientMessage(Component.literal(analyzing ? "Analyze mode enabled" : "Analyze mode disabled"), true);
+        }
+
+        return InteractionResultHolder.pass(stack);
+    }
+
+    /**
+     * @return Whether this wand also counts the blocks of each selection it measures
+     */
+    public static boolean isAnalyzing(ItemStack stack) {
+        var tag = stack.getTag();
+        return tag != null && tag.getBoolean("Analyze");
+    }
+
+    @Override
+    public void appendHoverText(ItemStack stack, @Nullable Level level, List<Component> tooltip, TooltipFlag advanced) {
+        if (isAnalyzing(stack)) {
+            tooltip.add(Component.literal("Analyze mode").withStyle(ChatFormatting.YELLOW));
+        }
+        tooltip.add(Component.literal("Tip: Sneak use in the air to toggle analyze mode").withStyle(ChatFormatting.DARK_GRAY));
+    }
 }
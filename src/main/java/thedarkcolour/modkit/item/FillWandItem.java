@@ -16,21 +16,32 @@
 
 package thedarkcolour.modkit.item;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
 import net.minecraft.ChatFormatting;
 import net.minecraft.core.BlockPos;
-import net.minecraft.core.registries.Registries;
+import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.nbt.CompoundTag;
 import net.minecraft.nbt.NbtUtils;
+import net.minecraft.nbt.Tag;
 import net.minecraft.network.chat.Component;
 import net.minecraft.network.chat.MutableComponent;
 import net.minecraft.world.entity.player.Player;
 import net.minecraft.world.item.ItemStack;
 import net.minecraft.world.item.TooltipFlag;
 import net.minecraft.world.level.Level;
+import net.minecraft.world.level.block.state.BlockState;
 import org.jetbrains.annotations.Nullable;
+import thedarkcolour.modkit.wand.FillPattern;
+import thedarkcolour.modkit.wand.Shape;
 
 import java.util.List;
 
 public class FillWandItem extends AbstractFillWand {
+    // decoded filler blocks, keyed by the identity of the "FillBlock" tag, which is replaced whenever the filler block changes
+    private static final Cache<CompoundTag, BlockState> FILL_BLOCKS = CacheBuilder.newBuilder().weakKeys().maximumSize(256).build();
+
     public FillWandItem(Properties pProperties) {
         super(pProperties);
     }
@@ -45,30 +56,89 @@ public class FillWandItem extends AbstractFillWand {
         if (player.isShiftKeyDown()) {
             var state = level.getBlockState(pos);
             stack.addTagElement("FillBlock", NbtUtils.writeBlockState(state));
+            stack.removeTagKey("Pattern");
             player.displayClientMessage(Component.literal("Set block to " + state.getBlock()), true);
+        } else if (getShape(stack) == Shape.CONNECTED) {
+            var pattern = getFillPattern(stack, player);
+            if (pattern != null) {
+                floodFill(pattern, pos, level, player);
+                player.getCooldowns().addCooldown(this, 5);
+            }
         } else {
-            if (stack.getTagElement("StartPos") == null) {
-                saveStartPos(stack, pos, player);
-            } else {
-                var savedFillBlock = stack.getTagElement("FillBlock");
-                if (savedFillBlock == null) {
-                    player.displayClientMessage(Component.literal("No filler block (use sneak click on a block)"), true);
-                } else {
-                    fill(stack, NbtUtils.readBlockState(level.holderLookup(Registries.BLOCK), savedFillBlock), pos, level, player);
+            var box = select(level, pos, player);
+            if (box != null) {
+                var pattern = getFillPattern(stack, player);
+                if (pattern != null) {
+                    fill(stack, pattern, box, level, player);
                     player.getCooldowns().addCooldown(this, 5);
                 }
             }
         }
     }
 
+    // the pattern if there is one, otherwise the filler block, or null after telling the player why there is neither
+    @Nullable
+    private static FillPattern getFillPattern(ItemStack stack, Player player) {
+        var pattern = getPattern(stack);
+        if (pattern != null) {
+            try {
+                return FillPattern.parse(pattern);
+            } catch (CommandSyntaxException e) {
+                player.displayClientMessage(Component.literal("Invalid pattern: " + e.getMessage()), true);
+                return null;
+            }
+        }
+
+        var fillBlock = getFillBlock(stack);
+        if (fillBlock == null) {
+            player.displayClientMessage(Component.literal("No filler block (use sneak click on a block)"), true);
+            return null;
+        }
+        return FillPattern.of(fillBlock);
+    }
+
+    /**
+     * @return The block this wand fills with, or null if none has been picked
+     */
+    @Nullable
+    public static BlockState getFillBlock(ItemStack stack) {
+        var tag = stack.getTagElement("FillBlock");
+        if (tag == null) {
+            return null;
+        }
+
+        var state = FILL_BLOCKS.getIfPresent(tag);
+        if (state == null) {
+            state = NbtUtils.readBlockState(BuiltInRegistries.BLOCK.asLookup(), tag);
+            FILL_BLOCKS.put(tag, state);
+        }
+        return state;
+    }
+
+    /**
+     * @return The weighted pattern this wand fills with instead of its filler block, or null if there is none
+     */
+    @Nullable
+    public static String getPattern(ItemStack stack) {
+        var tag = stack.getTag();
+        return tag != null && tag.contains("Pattern", Tag.TAG_STRING) ? tag.getString("Pattern") : null;
+    }
+
+    public static void setPattern(ItemStack stack, String pattern) {
+        stack.getOrCreateTag().putString("Pattern", pattern);
+    }
+
     @Override
     public void appendHoverText(ItemStack stack, @Nullable Level level, List<Component> tooltip, TooltipFlag advanced) {
         super.appendHoverText(stack, level, tooltip, advanced);
 
-        if (level != null) {
-            var fillBlockNbt = stack.getTagElement("FillBlock");
-            if (fillBlockNbt != null) {
-                tooltip.add(Component.literal("Filler Block: ").append(Component.translatable(NbtUtils.readBlockState(level.holderLookup(Registries.BLOCK), fillBlockNbt).getBlock().getDescriptionId()).withStyle(ChatFormatting.YELLOW)));
+        var pattern = getPattern(stack);
+        if (pattern != null) {
+            tooltip.add(Component.literal("Pattern: ").append(Component.literal(pattern).withStyle(ChatFormatting.YELLOW)));
+        } else {
+            var fillBlock = getFillBlock(stack);
+            if (fillBlock != null) {
+                tooltip.add(Component.literal("Filler Block: ").append(fillBlock.getBlock().getName().withStyle(ChatFormatting.YELLOW)));
             }
         }
     }
@@ -16,16 +16,37 @@
 
 package thedarkcolour.modkit.item;
 
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import net.minecraft.ChatFormatting;
 import net.minecraft.core.BlockPos;
+import net.minecraft.nbt.Tag;
+import net.minecraft.network.chat.Component;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.InteractionHand;
+import net.minecraft.world.InteractionResultHolder;
+import net.minecraft.world.entity.Entity;
 import net.minecraft.world.entity.LivingEntity;
 import net.minecraft.world.entity.monster.Slime;
 import net.minecraft.world.entity.player.Player;
 import net.minecraft.world.item.Item;
 import net.minecraft.world.item.ItemStack;
+import net.minecraft.world.item.TooltipFlag;
 import net.minecraft.world.level.Level;
 import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.phys.AABB;
+import net.minecraftforge.entity.PartEntity;
+import org.jetbrains.annotations.Nullable;
+import thedarkcolour.modkit.wand.EntityFilter;
+import thedarkcolour.modkit.wand.JobScheduler;
+import thedarkcolour.modkit.wand.PurgeJob;
+import thedarkcolour.modkit.wand.WandSession;
+
+import java.util.List;
+import java.util.function.Predicate;
 
 public class KillWand extends Item {
+    public static final int DEFAULT_PURGE_RADIUS = 16;
+
     public KillWand(Properties properties) {
         super(properties);
     }
@@ -37,14 +58,182 @@ public class KillWand extends Item {
 
     @Override
     public boolean hurtEnemy(ItemStack stack, LivingEntity target, LivingEntity attacker) {
-        target.skipDropExperience();
-        target.kill();
-        target.setHealth(0);
+        kill(target, false);
+        return true;
+    }
+
+    @Override
+    public boolean onLeftClickEntity(ItemStack stack, Player player, Entity entity) {
+        // players are never discarded, since that would disconnect them in a broken state
+        if (isDiscarding(stack) && !(entity instanceof Player)) {
+            // skips the attack entirely, so no damage, death or loot is processed
+            if (!player.level().isClientSide) {
+                kill(entity, true);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Kills an entity, or the whole entity if it is part of a multipart entity. Discarding removes the
+     * entity immediately, without death events, loot, experience, death animations or slime splitting.
+     *
+     * @return false if the entity was already dead or removed
+     */
+    public static boolean kill(Entity target, boolean discard) {
+        if (target instanceof PartEntity<?> part) {
+            target = part.getParent();
+        }
+        if (!target.isAlive()) {
+            return false;
+        }
 
-        // no children
-        if (target instanceof Slime) {
-            ((Slime) target).setSize(0, false);
+        if (discard) {
+            target.discard();
+        } else if (target instanceof LivingEntity living) {
+            living.skipDropExperience();
+            living.kill();
+            living.setHealth(0);
+
+            // no children
+            if (living instanceof Slime slime) {
+                slime.setSize(0, false);
+            }
+        } else {
+            target.kill();
         }
         return true;
     }
+
+    @Override
+    public InteractionResultHolder<ItemStack> use(Level level, Player player, InteractionHand hand) {
+        var stack = player.getItemInHand(hand);
+
+        if (level.isClientSide) {
+            return InteractionResultHolder.pass(stack);
+        } else if (player.isShiftKeyDown()) {
+            var discarding = !isDiscarding(stack);
+            if (discarding) {
+                stack.getOrCreateTag().putBoolean("Discard", true);
+            } else {
+                stack.removeTagKey("Discard");
+            }
+            player.displayClientMessage(Component.literal(discarding ? "Discard mode enabled" : "Discard mode disabled"), true);
+        } else if (level instanceof ServerLevel serverLevel) {
+            // purging is opt-in, a wand without a filter never removes entities in bulk
+            var filterString = getPurgeFilter(stack);
+            if (filterString == null) {
+                player.displayClientMessage(Component.literal("Set a purge filter first, ex. /modkit purge filter all"), true);
+                return InteractionResultHolder.fail(stack);
+            }
+
+            Predicate<Entity> filter;
+            try {
+                filter = EntityFilter.parse(filterString, isPurgingProtected(stack));
+            } catch (CommandSyntaxException e) {
+                player.displayClientMessage(Component.literal("Invalid filter: " + e.getMessage()), true);
+                return InteractionResultHolder.fail(stack);
+            }
+
+            AABB area;
+            var radius = getPurgeRadius(stack);
+            if (radius == 0) {
+                var selection = WandSession.get(player.getUUID()).getSelection();
+                var box = selection.getBox();
+                if (box == null || selection.getDimension() != level.dimension()) {
+                    player.displayClientMessage(Component.literal("Nothing is selected"), true);
+                    return InteractionResultHolder.fail(stack);
+                }
+                area = AABB.of(box);
+            } else {
+                var center = player.position();
+                area = new AABB(center, center).inflate(radius);
+                var test = filter;
+                filter = entity -> test.test(entity) && entity.distanceToSqr(center) <= radius * radius;
+            }
+
+            JobScheduler.submit(new PurgeJob(serverLevel, player.getUUID(), area, filter, isDiscarding(stack)));
+            player.getCooldowns().addCooldown(this, 20);
+        }
+
+        return InteractionResultHolder.pass(stack);
+    }
+
+    /**
+     * @return Whether this wand discards entities instead of killing them
+     */
+    public static boolean isDiscarding(ItemStack stack) {
+        var tag = stack.getTag();
+        return tag != null && tag.getBoolean("Discard");
+    }
+
+    /**
+     * @return The radius around the player purged by this wand, or 0 to purge the player's selection instead
+     */
+    public static int getPurgeRadius(ItemStack stack) {
+        var tag = stack.getTag();
+        return tag != null && tag.contains("PurgeRadius", Tag.TAG_INT) ? tag.getInt("PurgeRadius") : DEFAULT_PURGE_RADIUS;
+    }
+
+    public static void setPurgeRadius(ItemStack stack, int radius) {
+        if (radius == DEFAULT_PURGE_RADIUS) {
+            stack.removeTagKey("PurgeRadius");
+        } else {
+            stack.getOrCreateTag().putInt("PurgeRadius", radius);
+        }
+    }
+
+    /**
+     * @return The filter restricting which entities this wand purges, or null if this wand does not purge
+     */
+    @Nullable
+    public static String getPurgeFilter(ItemStack stack) {
+        var tag = stack.getTag();
+        return tag != null && tag.contains("PurgeFilter", Tag.TAG_STRING) ? tag.getString("PurgeFilter") : null;
+    }
+
+    public static void setPurgeFilter(ItemStack stack, @Nullable String filter) {
+        if (filter == null) {
+            stack.removeTagKey("PurgeFilter");
+        } else {
+            stack.getOrCreateTag().putString("PurgeFilter", filter);
+        }
+    }
+
+    /**
+     * @return Whether this wand also purges entities protected by {@link EntityFilter#isProtected}, without listing their type
+     */
+    public static boolean isPurgingProtected(ItemStack stack) {
+        var tag = stack.getTag();
+        return tag != null && tag.getBoolean("PurgeProtected");
+    }
+
+    public static void setPurgingProtected(ItemStack stack, boolean purgeProtected) {
+        if (purgeProtected) {
+            stack.getOrCreateTag().putBoolean("PurgeProtected", true);
+        } else {
+            stack.removeTagKey("PurgeProtected");
+        }
+    }
+
+    @Override
+    public void appendHoverText(ItemStack stack, @Nullable Level level, List<Component> tooltip, TooltipFlag advanced) {
+        var radius = getPurgeRadius(stack);
+        var area = radius == 0 ? "selection" : radius + " block radius";
+        var filter = getPurgeFilter(stack);
+        if (isDiscarding(stack)) {
+            tooltip.add(Component.literal("Discard mode").withStyle(ChatFormatting.YELLOW));
+        }
+        if (filter == null) {
+            tooltip.add(Component.literal("Tip: Set a filter with /modkit purge filter to purge entities, sneak to toggle discard mode").withStyle(ChatFormatting.DARK_GRAY));
+        } else {
+            tooltip.add(Component.literal("Purge: ").append(Component.literal(area).withStyle(ChatFormatting.YELLOW)));
+            tooltip.add(Component.literal("Filter: ").append(Component.literal(filter).withStyle(ChatFormatting.YELLOW)));
+            if (isPurgingProtected(stack)) {
+                tooltip.add(Component.literal("Includes decorations, pets and named entities").withStyle(ChatFormatting.RED));
+            }
+            tooltip.add(Component.literal("Tip: Use in the air to purge entities, sneak to toggle discard mode").withStyle(ChatFormatting.DARK_GRAY));
+        }
+    }
 }
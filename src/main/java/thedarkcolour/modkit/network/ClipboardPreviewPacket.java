@@ -0,0 +1,179 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 thedarkcolour
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ */
+
+package thedarkcolour.modkit.network;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+import net.minecraftforge.api.distmarker.Dist;
+import net.minecraftforge.fml.DistExecutor;
+import net.minecraftforge.network.NetworkEvent;
+import org.jetbrains.annotations.Nullable;
+import thedarkcolour.modkit.client.ClipboardPreview;
+import thedarkcolour.modkit.wand.Clipboard;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+/**
+ * Sends the blocks of a player's clipboard, with the transform applied, so the client can show a preview
+ * of pastes. Air and positions that were not captured are left out, and the rest is run-length encoded
+ * in y-z-x order over a palette of block state ids.
+ */
+public final class ClipboardPreviewPacket {
+    static final ClipboardPreviewPacket EMPTY = new ClipboardPreviewPacket(null, new BlockState[0], new short[0]);
+    // keeps the largest packets well under the 1 MiB payload limit
+    private static final int MAX_RUNS = 1 << 17;
+    private static final int MAX_PALETTE = 1 << 12;
+    // the largest value of MKConfig.CLIPBOARD_PREVIEW_VOLUME
+    private static final long MAX_VOLUME = 256 * 256 * 64;
+
+    @Nullable
+    private final BoundingBox box;
+    // index 0 is always empty
+    private final BlockState[] palette;
+    // palette index of each position in y-z-x order
+    private final short[] blocks;
+
+    private ClipboardPreviewPacket(@Nullable BoundingBox box, BlockState[] palette, short[] blocks) {
+        this.box = box;
+        this.palette = palette;
+        this.blocks = blocks;
+    }
+
+    /**
+     * Reads a whole clipboard, which can be done from any thread.
+     *
+     * @return The preview of the clipboard, or an empty preview if the clipboard is too large or too detailed to send
+     */
+    static ClipboardPreviewPacket of(Clipboard clipboard, int maxVolume) {
+        var box = clipboard.box();
+        if (clipboard.volume() > maxVolume) {
+            return EMPTY;
+        }
+
+        var ids = new Reference2IntOpenHashMap<BlockState>();
+        var palette = new ArrayList<BlockState>();
+        palette.add(null);
+        var blocks = new short[(int) clipboard.volume()];
+        var runs = 0;
+        var i = 0;
+        short last = -1;
+
+        for (int y = box.minY(); y <= box.maxY(); y++) {
+            for (int z = box.minZ(); z <= box.maxZ(); z++) {
+                for (int x = box.minX(); x <= box.maxX(); x++) {
+                    var state = clipboard.get(x, y, z);
+                    var index = 0;
+
+                    if (state != null && !state.isAir()) {
+                        index = ids.getInt(state);
+                        if (index == 0) {
+                            if (palette.size() == MAX_PALETTE) {
+                                return EMPTY;
+                            }
+                            index = palette.size();
+                            palette.add(state);
+                            ids.put(state, index);
+                        }
+                    }
+                    if (index != last) {
+                        if (++runs > MAX_RUNS) {
+                            return EMPTY;
+                        }
+                        last = (short) index;
+                    }
+                    blocks[i++] = (short) index;
+                }
+            }
+        }
+
+        return new ClipboardPreviewPacket(box, palette.toArray(new BlockState[0]), blocks);
+    }
+
+    void encode(FriendlyByteBuf buffer) {
+        if (this.box == null) {
+            buffer.writeBoolean(false);
+            return;
+        }
+
+        buffer.writeBoolean(true);
+        buffer.writeVarInt(this.box.minX());
+        buffer.writeVarInt(this.box.minY());
+        buffer.writeVarInt(this.box.minZ());
+        buffer.writeVarInt(this.box.maxX());
+        buffer.writeVarInt(this.box.maxY());
+        buffer.writeVarInt(this.box.maxZ());
+        buffer.writeVarInt(this.palette.length);
+        for (int i = 1; i < this.palette.length; i++) {
+            buffer.writeVarInt(Block.getId(this.palette[i]));
+        }
+
+        var runs = new IntArrayList();
+        for (int start = 0, i = 1; i <= this.blocks.length; i++) {
+            if (i == this.blocks.length || this.blocks[i] != this.blocks[start]) {
+                runs.add(i - start);
+                runs.add(this.blocks[start]);
+                start = i;
+            }
+        }
+        buffer.writeVarInt(runs.size() / 2);
+        for (int i = 0; i < runs.size(); i++) {
+            buffer.writeVarInt(runs.getInt(i));
+        }
+    }
+
+    static ClipboardPreviewPacket decode(FriendlyByteBuf buffer) {
+        if (!buffer.readBoolean()) {
+            return EMPTY;
+        }
+
+        var box = new BoundingBox(buffer.readVarInt(), buffer.readVarInt(), buffer.readVarInt(), buffer.readVarInt(), buffer.readVarInt(), buffer.readVarInt());
+        var volume = (long) box.getXSpan() * box.getYSpan() * box.getZSpan();
+        var paletteSize = buffer.readVarInt();
+        if (volume > MAX_VOLUME || paletteSize < 1 || paletteSize > MAX_PALETTE) {
+            throw new IllegalArgumentException("Invalid clipboard preview");
+        }
+
+        var palette = new BlockState[paletteSize];
+        for (int i = 1; i < paletteSize; i++) {
+            palette[i] = Block.stateById(buffer.readVarInt());
+        }
+
+        var blocks = new short[(int) volume];
+        var runs = buffer.readVarInt();
+        for (int run = 0, i = 0; run < runs; run++) {
+            var length = buffer.readVarInt();
+            var index = buffer.readVarInt();
+            if (length < 0 || i + length > blocks.length || index < 0 || index >= paletteSize) {
+                throw new IllegalArgumentException("Invalid clipboard preview");
+            }
+            Arrays.fill(blocks, i, i + length, (short) index);
+            i += length;
+        }
+
+        return new ClipboardPreviewPacket(box, palette, blocks);
+    }
+
+    void handle(Supplier<NetworkEvent.Context> ctx) {
+        DistExecutor.unsafeRunWhenOn(Dist.CLIENT, () -> () -> ClipboardPreview.setPreview(this.box, this.palette, this.blocks));
+    }
+}
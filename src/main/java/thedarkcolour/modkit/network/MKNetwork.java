@@ -0,0 +1,97 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 thedarkcolour
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ */
+
+package thedarkcolour.modkit.network;
+
+import net.minecraft.Util;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraftforge.network.NetworkDirection;
+import net.minecraftforge.network.NetworkRegistry;
+import net.minecraftforge.network.PacketDistributor;
+import net.minecraftforge.network.simple.SimpleChannel;
+import thedarkcolour.modkit.MKConfig;
+import thedarkcolour.modkit.ModKit;
+import thedarkcolour.modkit.wand.Selection;
+import thedarkcolour.modkit.wand.TransformedClipboard;
+import thedarkcolour.modkit.wand.WandSession;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * ModKit's network channel. The channel is optional on both sides, so vanilla clients and clients
+ * without ModKit can still join, and packets are only sent to players that have it.
+ */
+public final class MKNetwork {
+    private static final String VERSION = "1";
+    private static final SimpleChannel CHANNEL = NetworkRegistry.newSimpleChannel(
+            new ResourceLocation(ModKit.ID, "main"),
+            () -> VERSION,
+            NetworkRegistry.acceptMissingOr(VERSION),
+            NetworkRegistry.acceptMissingOr(VERSION)
+    );
+
+    public static void register() {
+        CHANNEL.messageBuilder(SelectionPacket.class, 0, NetworkDirection.PLAY_TO_CLIENT)
+                .encoder(SelectionPacket::encode)
+                .decoder(SelectionPacket::decode)
+                .consumerMainThread(SelectionPacket::handle)
+                .add();
+        CHANNEL.messageBuilder(ClipboardPreviewPacket.class, 1, NetworkDirection.PLAY_TO_CLIENT)
+                .encoder(ClipboardPreviewPacket::encode)
+                .decoder(ClipboardPreviewPacket::decode)
+                .consumerMainThread(ClipboardPreviewPacket::handle)
+                .add();
+    }
+
+    /**
+     * Shows the player's current selection, or hides it if there is none.
+     */
+    public static void sendSelection(ServerPlayer player, Selection selection) {
+        send(player, SelectionPacket.of(selection));
+    }
+
+    /**
+     * Sends the player's clipboard with its transform applied, so their client can preview pastes. Call this
+     * whenever the clipboard or transform changes. The preview is built off the server thread, and is dropped if
+     * the clipboard or transform changes again before it is sent.
+     */
+    public static void sendClipboardPreview(ServerPlayer player, WandSession session) {
+        if (!CHANNEL.isRemotePresent(player.connection.connection)) return;
+
+        var clipboard = session.getClipboard();
+        var transform = session.getTransform();
+        var maxVolume = MKConfig.CLIPBOARD_PREVIEW_VOLUME.get();
+        if (clipboard == null || clipboard.volume() > maxVolume) {
+            send(player, ClipboardPreviewPacket.EMPTY);
+            return;
+        }
+
+        CompletableFuture.supplyAsync(() -> ClipboardPreviewPacket.of(TransformedClipboard.of(clipboard, transform), maxVolume), Util.backgroundExecutor()).whenCompleteAsync((packet, error) -> {
+            if (error != null) {
+                ModKit.LOGGER.error("Failed to build clipboard preview", error);
+            } else if (!player.hasDisconnected() && session.getClipboard() == clipboard && session.getTransform().equals(transform)) {
+                send(player, packet);
+            }
+        }, player.server);
+    }
+
+    private static void send(ServerPlayer player, Object packet) {
+        if (CHANNEL.isRemotePresent(player.connection.connection)) {
+            CHANNEL.send(PacketDistributor.PLAYER.with(() -> player), packet);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 thedarkcolour
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ */
+
+package thedarkcolour.modkit.network;
+
+import net.minecraft.core.registries.Registries;
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+import net.minecraftforge.api.distmarker.Dist;
+import net.minecraftforge.fml.DistExecutor;
+import net.minecraftforge.network.NetworkEvent;
+import org.jetbrains.annotations.Nullable;
+import thedarkcolour.modkit.client.SelectionRenderer;
+import thedarkcolour.modkit.wand.Selection;
+
+import java.util.function.Supplier;
+
+/**
+ * Tells a client which box to draw for its selection. A null box hides the selection.
+ */
+public record SelectionPacket(@Nullable ResourceKey<Level> dimension, @Nullable BoundingBox box, boolean pending) {
+    static SelectionPacket of(Selection selection) {
+        var dimension = selection.getDimension();
+        var box = selection.getBox();
+        return dimension == null || box == null ? new SelectionPacket(null, null, false) : new SelectionPacket(dimension, box, selection.isPending());
+    }
+
+    void encode(FriendlyByteBuf buffer) {
+        if (this.dimension == null || this.box == null) {
+            buffer.writeBoolean(false);
+        } else {
+            buffer.writeBoolean(true);
+            buffer.writeResourceKey(this.dimension);
+            buffer.writeVarInt(this.box.minX());
+            buffer.writeVarInt(this.box.minY());
+            buffer.writeVarInt(this.box.minZ());
+            buffer.writeVarInt(this.box.maxX());
+            buffer.writeVarInt(this.box.maxY());
+            buffer.writeVarInt(this.box.maxZ());
+            buffer.writeBoolean(this.pending);
+        }
+    }
+
+    static SelectionPacket decode(FriendlyByteBuf buffer) {
+        if (!buffer.readBoolean()) {
+            return new SelectionPacket(null, null, false);
+        }
+        var dimension = buffer.readResourceKey(Registries.DIMENSION);
+        var box = new BoundingBox(buffer.readVarInt(), buffer.readVarInt(), buffer.readVarInt(), buffer.readVarInt(), buffer.readVarInt(), buffer.readVarInt());
+        return new SelectionPacket(dimension, box, buffer.readBoolean());
+    }
+
+    void handle(Supplier<NetworkEvent.Context> ctx) {
+        DistExecutor.unsafeRunWhenOn(Dist.CLIENT, () -> () -> SelectionRenderer.setSelection(this.dimension, this.box, this.pending));
+    }
+}
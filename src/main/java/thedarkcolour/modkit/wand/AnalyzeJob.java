@@ -0,0 +1,148 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 thedarkcolour
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ */
+
+package thedarkcolour.modkit.wand;
+
+import it.unimi.dsi.fastutil.objects.Reference2LongMap;
+import it.unimi.dsi.fastutil.objects.Reference2LongOpenHashMap;
+import net.minecraft.ChatFormatting;
+import net.minecraft.commands.arguments.blocks.BlockStateParser;
+import net.minecraft.network.chat.Component;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.PalettedContainer;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+import thedarkcolour.modkit.ModKit;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Counts the block states, block entities and light sources in a box and prints them as a table, most
+ * common state first, to the player's chat.
+ * <p>
+ * Block entities are counted on the server thread, while each section is counted on the background
+ * executor, see {@link SectionSnapshotJob}. Sections that lie entirely inside the box are counted from
+ * their palette, and partial sections only visit every position inside the box if they contain more than one state.
+ */
+public class AnalyzeJob extends SectionSnapshotJob<Reference2LongMap<BlockState>, Reference2LongMap<BlockState>> {
+    // rows of the table printed to chat
+    private static final int MAX_ROWS = 15;
+
+    private int blockEntities;
+
+    public AnalyzeJob(ServerLevel level, UUID owner, BoundingBox box) {
+        super(level, owner, "Analyzing", box);
+    }
+
+    @Override
+    protected void captureChunk(LevelChunk chunk) {
+        for (var pos : chunk.getBlockEntitiesPos()) {
+            if (this.box.isInside(pos)) {
+                this.blockEntities++;
+            }
+        }
+    }
+
+    @Override
+    protected Reference2LongMap<BlockState> readSection(PalettedContainer<BlockState> states, BoundingBox sectionBox) {
+        var histogram = new Reference2LongOpenHashMap<BlockState>();
+        var volume = sectionBox.getXSpan() * sectionBox.getYSpan() * sectionBox.getZSpan();
+
+        if (volume == 4096) {
+            // the whole section is inside the box, so the palette counts are exact
+            states.count((state, count) -> histogram.addTo(state, count));
+            return histogram;
+        }
+
+        // only the palette is checked, so a section with unused palette entries is still counted position by position
+        var first = states.get(sectionBox.minX() & 15, sectionBox.minY() & 15, sectionBox.minZ() & 15);
+        if (!states.maybeHas(state -> state != first)) {
+            histogram.put(first, volume);
+            return histogram;
+        }
+
+        for (int y = sectionBox.minY(); y <= sectionBox.maxY(); y++) {
+            for (int z = sectionBox.minZ(); z <= sectionBox.maxZ(); z++) {
+                for (int x = sectionBox.minX(); x <= sectionBox.maxX(); x++) {
+                    histogram.addTo(states.get(x & 15, y & 15, z & 15), 1);
+                }
+            }
+        }
+
+        return histogram;
+    }
+
+    @Override
+    protected Reference2LongMap<BlockState> merge(List<Reference2LongMap<BlockState>> sections) {
+        var histogram = new Reference2LongOpenHashMap<BlockState>();
+
+        for (var section : sections) {
+            for (var entry : section.reference2LongEntrySet()) {
+                histogram.addTo(entry.getKey(), entry.getLongValue());
+            }
+        }
+
+        return histogram;
+    }
+
+    @Override
+    protected void finish(boolean cancelled) {
+        if (cancelled) {
+            this.sendMessage(Component.literal("Cancelled analysis"));
+            return;
+        }
+
+        Reference2LongMap<BlockState> histogram;
+        try {
+            histogram = this.getResult();
+        } catch (Exception e) {
+            ModKit.LOGGER.error("Failed to analyze blocks", e);
+            this.sendMessage(Component.literal("Failed to analyze blocks"));
+            return;
+        }
+        var player = this.getOwner();
+        if (player == null) return;
+
+        long total = 0, lightSources = 0;
+        for (var entry : histogram.reference2LongEntrySet()) {
+            total += entry.getLongValue();
+            if (entry.getKey().getLightEmission() > 0) {
+                lightSources += entry.getLongValue();
+            }
+        }
+
+        var rows = new ArrayList<>(histogram.reference2LongEntrySet());
+        rows.sort(Comparator.comparingLong(Reference2LongMap.Entry<BlockState>::getLongValue).reversed());
+
+        player.sendSystemMessage(Component.literal(String.format("Analyzed (%d %d %d) to (%d %d %d): %d blocks, %d block entities, %d light sources, %d states",
+                this.box.minX(), this.box.minY(), this.box.minZ(), this.box.maxX(), this.box.maxY(), this.box.maxZ(),
+                total, this.blockEntities, lightSources, rows.size())).withStyle(ChatFormatting.GOLD));
+
+        for (int i = 0; i < Math.min(MAX_ROWS, rows.size()); i++) {
+            var row = rows.get(i);
+            var percent = 100.0 * row.getLongValue() / total;
+            player.sendSystemMessage(Component.literal(String.format("%10d %6.2f%% ", row.getLongValue(), percent))
+                    .append(Component.literal(BlockStateParser.serialize(row.getKey())).withStyle(ChatFormatting.GRAY)));
+        }
+        if (rows.size() > MAX_ROWS) {
+            player.sendSystemMessage(Component.literal("... and " + (rows.size() - MAX_ROWS) + " more").withStyle(ChatFormatting.DARK_GRAY));
+        }
+    }
+}
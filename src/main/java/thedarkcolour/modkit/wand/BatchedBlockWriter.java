@@ -0,0 +1,355 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 thedarkcolour
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ */
+
+package thedarkcolour.modkit.wand;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.objects.ReferenceOpenHashSet;
+import it.unimi.dsi.fastutil.shorts.ShortOpenHashSet;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Direction;
+import net.minecraft.core.SectionPos;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.network.protocol.game.ClientboundBlockUpdatePacket;
+import net.minecraft.network.protocol.game.ClientboundSectionBlocksUpdatePacket;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.entity.BlockEntity;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+import net.minecraft.world.level.lighting.LightEngine;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Set;
+
+/**
+ * Writes large numbers of block states directly into chunk sections, skipping the per-block overhead
+ * of {@link net.minecraft.world.level.Level#setBlock}. Changes are grouped by chunk section and only
+ * finalized when {@link #flush()} is called, at which point every touched section gets a single
+ * update packet and a single light status update, and the heightmaps of the changed columns are updated.
+ * <p>
+ * Writes behave like {@code setBlock} with flags 2 | 16: no neighbor updates, no shape updates and no
+ * block callbacks ({@code onPlace}/{@code onRemove}), so containers do not drop their contents.
+ * Block entities are still removed and created as needed. How light is updated depends on the
+ * {@link WriteMode}; once all writes are done, {@link #finish(BoundingBox)} applies the deferred work.
+ * <p>
+ * If the writer has a capture snapshot, it records the previous state and block entity data of every
+ * position it writes to, which is how wand operations collect their undo information.
+ */
+public class BatchedBlockWriter {
+    private final ServerLevel level;
+    // keyed by SectionPos.asLong
+    private final Long2ObjectLinkedOpenHashMap<SectionChanges> sections = new Long2ObjectLinkedOpenHashMap<>();
+
+    @Nullable
+    private final BlockSnapshot capture;
+    private final WriteMode mode;
+    // light checks collected across flushes in DEFERRED_LIGHTING mode
+    private final LongOpenHashSet deferredLightChecks = new LongOpenHashSet();
+    @Nullable
+    private SectionChanges lastSection;
+
+    public BatchedBlockWriter(ServerLevel level) {
+        this(level, null, WriteMode.NO_NEIGHBOR_UPDATES);
+    }
+
+    /**
+     * @param capture If not null, receives the previous state and block entity of every written position
+     */
+    public BatchedBlockWriter(ServerLevel level, @Nullable BlockSnapshot capture, WriteMode mode) {
+        this.level = level;
+        this.capture = capture;
+        this.mode = mode;
+    }
+
+    public ServerLevel level() {
+        return this.level;
+    }
+
+    /**
+     * Gets the block state at the given position, or null if the position is outside the world.
+     */
+    @Nullable
+    public BlockState getBlockState(BlockPos pos) {
+        var changes = this.getSection(pos);
+        return changes == null ? null : changes.section.getBlockState(pos.getX() & 15, pos.getY() & 15, pos.getZ() & 15);
+    }
+
+    /**
+     * Writes a block state into its chunk section. The change is not visible to clients until {@link #flush()}.
+     * Positions which already have this state are skipped and not captured.
+     *
+     * @return The state that was previously at this position (equal to {@code state} if nothing changed),
+     * or null if the position is outside the world.
+     */
+    @Nullable
+    public BlockState setBlockState(BlockPos pos, BlockState state) {
+        return this.setBlockState(pos, state, null);
+    }
+
+    /**
+     * Writes a block state into its chunk section, then loads the given data into its block entity.
+     *
+     * @param blockEntityTag Block entity data without id or position, as saved by {@link BlockEntity#saveWithoutMetadata()}
+     */
+    @Nullable
+    public BlockState setBlockState(BlockPos pos, BlockState state, @Nullable CompoundTag blockEntityTag) {
+        var changes = this.getSection(pos);
+        if (changes == null) {
+            return null;
+        }
+
+        int x = pos.getX() & 15, y = pos.getY() & 15, z = pos.getZ() & 15;
+        var section = changes.section;
+        var old = section.getBlockState(x, y, z);
+
+        // compare first, so unchanged positions cost one read and are never captured
+        if (old == state && blockEntityTag == null) {
+            return old;
+        }
+
+        var chunk = changes.chunk;
+        if (old != state) {
+            section.setBlockState(x, y, z, state, false);
+        }
+
+        if (this.capture != null) {
+            this.capture.set(pos, old);
+
+            if (old.hasBlockEntity()) {
+                var blockEntity = chunk.getBlockEntity(pos, LevelChunk.EntityCreationType.CHECK);
+                if (blockEntity != null) {
+                    this.capture.setBlockEntity(pos, blockEntity.saveWithoutMetadata());
+                }
+            }
+        }
+
+        if (old != state) {
+            changes.changed.add(SectionPos.sectionRelativePos(pos));
+
+            if (old.hasBlockEntity() && (!old.is(state.getBlock()) || !state.hasBlockEntity())) {
+                chunk.removeBlockEntity(pos);
+            }
+            if (state.hasBlockEntity()) {
+                var blockEntity = chunk.getBlockEntity(pos, LevelChunk.EntityCreationType.CHECK);
+                if (blockEntity == null) {
+                    chunk.getBlockEntity(pos, LevelChunk.EntityCreationType.IMMEDIATE);
+                } else {
+                    blockEntity.setBlockState(state);
+                }
+                changes.blockEntities.add(pos.asLong());
+            }
+            if (LightEngine.hasDifferentLightProperties(chunk, pos, old, state)) {
+                chunk.getSkyLightSources().update(chunk, x, pos.getY(), z);
+
+                switch (this.mode) {
+                    case NO_NEIGHBOR_UPDATES -> changes.lightChecks.add(pos.asLong());
+                    case DEFERRED_LIGHTING -> this.deferredLightChecks.add(pos.asLong());
+                }
+            }
+            this.level.onBlockStateChange(pos, old, state);
+        }
+
+        if (blockEntityTag != null && state.hasBlockEntity()) {
+            var blockEntity = chunk.getBlockEntity(pos, LevelChunk.EntityCreationType.CHECK);
+            if (blockEntity != null) {
+                blockEntity.load(blockEntityTag);
+                blockEntity.setChanged();
+                changes.blockEntities.add(pos.asLong());
+            }
+        }
+
+        return old;
+    }
+
+    @Nullable
+    private SectionChanges getSection(BlockPos pos) {
+        if (this.level.isOutsideBuildHeight(pos)) {
+            return null;
+        }
+
+        var key = SectionPos.asLong(pos);
+        var last = this.lastSection;
+        if (last != null && last.key == key) {
+            return last;
+        }
+
+        var changes = this.sections.get(key);
+        if (changes == null) {
+            var chunk = this.level.getChunk(SectionPos.blockToSectionCoord(pos.getX()), SectionPos.blockToSectionCoord(pos.getZ()));
+            changes = new SectionChanges(key, chunk, chunk.getSection(this.level.getSectionIndex(pos.getY())));
+            this.sections.put(key, changes);
+        }
+
+        return this.lastSection = changes;
+    }
+
+    /**
+     * Finishes all pending writes: updates light, heightmaps and sends changes to clients.
+     */
+    public void flush() {
+        if (this.sections.isEmpty()) {
+            return;
+        }
+
+        var lightEngine = this.level.getChunkSource().getLightEngine();
+        var chunkMap = this.level.getChunkSource().chunkMap;
+        Set<LevelChunk> touchedChunks = new ReferenceOpenHashSet<>();
+
+        for (var changes : this.sections.values()) {
+            if (changes.changed.isEmpty() && changes.blockEntities.isEmpty()) {
+                continue;
+            }
+
+            var chunk = changes.chunk;
+            var sectionPos = SectionPos.of(changes.key);
+
+            touchedChunks.add(chunk);
+
+            // heightmaps: only the changed positions, against their final states, like setBlock does per block
+            var heightmaps = chunk.getHeightmaps();
+            var changedIterator = changes.changed.iterator();
+            while (changedIterator.hasNext()) {
+                var pos = sectionPos.relativeToBlockPos(changedIterator.nextShort());
+                var state = changes.section.getBlockState(pos.getX() & 15, pos.getY() & 15, pos.getZ() & 15);
+                for (var entry : heightmaps) {
+                    entry.getValue().update(pos.getX() & 15, pos.getY(), pos.getZ() & 15, state);
+                }
+            }
+
+            // light engine: one status update per section, then queue the positions whose light properties changed
+            var isEmpty = changes.section.hasOnlyAir();
+            if (isEmpty != changes.wasEmpty) {
+                lightEngine.updateSectionStatus(sectionPos, isEmpty);
+            }
+            for (int i = 0; i < changes.lightChecks.size(); i++) {
+                lightEngine.checkBlock(BlockPos.of(changes.lightChecks.getLong(i)));
+            }
+
+            // one packet per section
+            var players = chunkMap.getPlayers(chunk.getPos(), false);
+            if (!players.isEmpty()) {
+                // sections may only have block entity data changes
+                if (changes.changed.size() == 1) {
+                    var pos = sectionPos.relativeToBlockPos(changes.changed.iterator().nextShort());
+                    var packet = new ClientboundBlockUpdatePacket(pos, changes.section.getBlockState(pos.getX() & 15, pos.getY() & 15, pos.getZ() & 15));
+                    for (var player : players) {
+                        player.connection.send(packet);
+                    }
+                } else if (!changes.changed.isEmpty()) {
+                    var packet = new ClientboundSectionBlocksUpdatePacket(sectionPos, changes.changed, changes.section);
+                    for (var player : players) {
+                        player.connection.send(packet);
+                    }
+                }
+
+                var blockEntities = changes.blockEntities.iterator();
+                while (blockEntities.hasNext()) {
+                    var blockEntity = chunk.getBlockEntity(BlockPos.of(blockEntities.nextLong()));
+                    if (blockEntity != null) {
+                        var packet = blockEntity.getUpdatePacket();
+                        if (packet != null) {
+                            for (var player : players) {
+                                player.connection.send(packet);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        for (var chunk : touchedChunks) {
+            chunk.setUnsaved(true);
+        }
+
+        this.sections.clear();
+        this.lastSection = null;
+    }
+
+    /**
+     * Flushes remaining changes and applies the work deferred by the {@link WriteMode}. In
+     * {@link WriteMode#DEFERRED_LIGHTING} mode this queues every collected light check once, then
+     * notifies the blocks just outside the box of their new neighbors.
+     *
+     * @param box The region that was written to
+     */
+    public void finish(BoundingBox box) {
+        this.flush();
+
+        if (this.mode == WriteMode.DEFERRED_LIGHTING) {
+            var lightEngine = this.level.getChunkSource().getLightEngine();
+            var iterator = this.deferredLightChecks.iterator();
+            while (iterator.hasNext()) {
+                lightEngine.checkBlock(BlockPos.of(iterator.nextLong()));
+            }
+            this.deferredLightChecks.clear();
+
+            this.updateShell(box);
+        }
+    }
+
+    // notifies every block adjacent to a face of the box, instead of every neighbor of every written block
+    private void updateShell(BoundingBox box) {
+        var inside = new BlockPos.MutableBlockPos();
+        var outside = new BlockPos.MutableBlockPos();
+
+        for (var direction : Direction.values()) {
+            var axis = direction.getAxis();
+            int face = direction.getAxisDirection() == Direction.AxisDirection.POSITIVE ? axis.choose(box.maxX(), box.maxY(), box.maxZ()) : axis.choose(box.minX(), box.minY(), box.minZ());
+            int minX = axis == Direction.Axis.X ? face : box.minX(), maxX = axis == Direction.Axis.X ? face : box.maxX();
+            int minY = axis == Direction.Axis.Y ? face : box.minY(), maxY = axis == Direction.Axis.Y ? face : box.maxY();
+            int minZ = axis == Direction.Axis.Z ? face : box.minZ(), maxZ = axis == Direction.Axis.Z ? face : box.maxZ();
+
+            for (int y = minY; y <= maxY; y++) {
+                for (int z = minZ; z <= maxZ; z++) {
+                    for (int x = minX; x <= maxX; x++) {
+                        inside.set(x, y, z);
+                        outside.setWithOffset(inside, direction);
+
+                        if (this.level.isLoaded(inside) && this.level.isLoaded(outside)) {
+                            var state = this.level.getBlockState(inside);
+                            this.level.neighborShapeChanged(direction.getOpposite(), state, outside, inside, Block.UPDATE_CLIENTS, Block.UPDATE_LIMIT);
+                            this.level.neighborChanged(outside, state.getBlock(), inside);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static class SectionChanges {
+        private final long key;
+        private final LevelChunk chunk;
+        private final LevelChunkSection section;
+        private final boolean wasEmpty;
+        // positions relative to the section, in the format used by ClientboundSectionBlocksUpdatePacket
+        private final ShortOpenHashSet changed = new ShortOpenHashSet();
+        private final LongArrayList lightChecks = new LongArrayList();
+        // a position can be written more than once per flush, but should only be sent once
+        private final LongOpenHashSet blockEntities = new LongOpenHashSet();
+
+        private SectionChanges(long key, LevelChunk chunk, LevelChunkSection section) {
+            this.key = key;
+            this.chunk = chunk;
+            this.section = section;
+            this.wasEmpty = section.hasOnlyAir();
+        }
+    }
+}
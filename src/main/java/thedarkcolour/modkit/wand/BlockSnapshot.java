@@ -0,0 +1,341 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 thedarkcolour
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ */
+
+package thedarkcolour.modkit.wand;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.HolderGetter;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.NbtUtils;
+import net.minecraft.nbt.Tag;
+import net.minecraft.util.BitStorage;
+import net.minecraft.util.Mth;
+import net.minecraft.util.SimpleBitStorage;
+import net.minecraft.util.ZeroBitStorage;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stores the block states of a box as a palette of distinct states and a bit-packed array of palette
+ * indices, similar to a vanilla {@link net.minecraft.world.level.chunk.PalettedContainer}. Each position
+ * costs {@code ceil(log2(palette size))} bits instead of a map entry.
+ * <p>
+ * Positions are indexed in x-z-y order relative to the minimum corner of the box. Palette index 0 is
+ * reserved for positions which have not been captured, so a partially captured snapshot (ex. from a
+ * cancelled job) only restores the positions that were actually changed. Together with the writer only
+ * capturing positions it changes, this makes the storage a sparse mask over the box: a snapshot in which
+ * only one state was captured costs one bit per position, and an empty one costs nothing.
+ * <p>
+ * Block entity data is kept in a side table keyed by position index and entities in a plain list. Both
+ * are only allocated once something is added, so snapshots of plain terrain don't pay for them.
+ */
+public class BlockSnapshot implements Clipboard {
+    private final BoundingBox box;
+    private final int sizeX, sizeZ, volume;
+    private final List<BlockState> palette = new ArrayList<>();
+    private final Reference2IntOpenHashMap<BlockState> paletteIds = new Reference2IntOpenHashMap<>();
+    private BitStorage storage;
+    // number of positions with a palette index other than 0
+    private int captured;
+    @Nullable
+    private Int2ObjectOpenHashMap<CompoundTag> blockEntities;
+    @Nullable
+    private List<CompoundTag> entities;
+
+    public BlockSnapshot(BoundingBox box) {
+        if (isTooLarge(box)) {
+            throw new IllegalArgumentException("Box is too large for a snapshot: " + box);
+        }
+
+        this.box = box;
+        this.sizeX = box.getXSpan();
+        this.sizeZ = box.getZSpan();
+        this.volume = this.sizeX * box.getYSpan() * this.sizeZ;
+        this.storage = new ZeroBitStorage(this.volume);
+
+        // index 0 is "not captured"
+        this.palette.add(null);
+        this.paletteIds.defaultReturnValue(-1);
+    }
+
+    public CompoundTag save() {
+        var tag = new CompoundTag();
+        tag.putIntArray("Box", new int[]{this.box.minX(), this.box.minY(), this.box.minZ(), this.box.maxX(), this.box.maxY(), this.box.maxZ()});
+
+        var palette = new ListTag();
+        for (int i = 1; i < this.palette.size(); i++) {
+            palette.add(NbtUtils.writeBlockState(this.palette.get(i)));
+        }
+        tag.put("Palette", palette);
+        tag.putInt("Bits", this.storage.getBits());
+        tag.putLongArray("Data", this.storage.getRaw());
+        tag.putInt("Captured", this.captured);
+
+        if (this.blockEntities != null) {
+            var blockEntities = new ListTag();
+            for (var entry : this.blockEntities.int2ObjectEntrySet()) {
+                var blockEntity = new CompoundTag();
+                blockEntity.putInt("Index", entry.getIntKey());
+                blockEntity.put("Data", entry.getValue());
+                blockEntities.add(blockEntity);
+            }
+            tag.put("BlockEntities", blockEntities);
+        }
+        if (this.entities != null) {
+            var entities = new ListTag();
+            entities.addAll(this.entities);
+            tag.put("Entities", entities);
+        }
+
+        return tag;
+    }
+
+    public static BlockSnapshot load(CompoundTag tag, HolderGetter<Block> blocks) {
+        var box = tag.getIntArray("Box");
+        var snapshot = new BlockSnapshot(new BoundingBox(box[0], box[1], box[2], box[3], box[4], box[5]));
+
+        var palette = tag.getList("Palette", Tag.TAG_COMPOUND);
+        for (int i = 0; i < palette.size(); i++) {
+            var state = NbtUtils.readBlockState(blocks, palette.getCompound(i));
+            snapshot.paletteIds.put(state, snapshot.palette.size());
+            snapshot.palette.add(state);
+        }
+
+        var bits = tag.getInt("Bits");
+        if (bits != 0) {
+            snapshot.storage = new SimpleBitStorage(bits, snapshot.volume, tag.getLongArray("Data"));
+        }
+        snapshot.captured = tag.getInt("Captured");
+
+        if (tag.contains("BlockEntities", Tag.TAG_LIST)) {
+            var blockEntities = tag.getList("BlockEntities", Tag.TAG_COMPOUND);
+            snapshot.blockEntities = new Int2ObjectOpenHashMap<>(blockEntities.size());
+            for (int i = 0; i < blockEntities.size(); i++) {
+                var blockEntity = blockEntities.getCompound(i);
+                snapshot.blockEntities.put(blockEntity.getInt("Index"), blockEntity.getCompound("Data"));
+            }
+        }
+        if (tag.contains("Entities", Tag.TAG_LIST)) {
+            var entities = tag.getList("Entities", Tag.TAG_COMPOUND);
+            snapshot.entities = new ArrayList<>(entities.size());
+            for (int i = 0; i < entities.size(); i++) {
+                snapshot.entities.add(entities.getCompound(i));
+            }
+        }
+
+        return snapshot;
+    }
+
+    public static boolean isTooLarge(BoundingBox box) {
+        return (long) box.getXSpan() * box.getYSpan() * box.getZSpan() > Integer.MAX_VALUE;
+    }
+
+    @Override
+    public BoundingBox box() {
+        return this.box;
+    }
+
+    @Override
+    public long volume() {
+        return this.volume;
+    }
+
+    /**
+     * @return Whether no position has been captured, in which case restoring this snapshot does nothing
+     */
+    public boolean isEmpty() {
+        return this.captured == 0 && this.blockEntities == null;
+    }
+
+    /**
+     * @return The number of positions with a captured state
+     */
+    public int capturedCount() {
+        return this.captured;
+    }
+
+    public int index(int x, int y, int z) {
+        return ((y - this.box.minY()) * this.sizeZ + (z - this.box.minZ())) * this.sizeX + (x - this.box.minX());
+    }
+
+    public void set(BlockPos pos, BlockState state) {
+        this.set(pos.getX(), pos.getY(), pos.getZ(), state);
+    }
+
+    public void set(int x, int y, int z, BlockState state) {
+        int id = this.idFor(state);
+        if (this.storage.getAndSet(this.index(x, y, z), id) == 0) {
+            this.captured++;
+        }
+    }
+
+    /**
+     * @return The captured state at this position, or null if nothing was captured there
+     */
+    @Nullable
+    public BlockState get(BlockPos pos) {
+        return this.get(pos.getX(), pos.getY(), pos.getZ());
+    }
+
+    @Nullable
+    @Override
+    public BlockState get(int x, int y, int z) {
+        return this.palette.get(this.storage.get(this.index(x, y, z)));
+    }
+
+    /**
+     * @return The palette index at this position, 0 if nothing was captured there. Use {@link #getPaletteState} to resolve it.
+     */
+    public int getPaletteId(int x, int y, int z) {
+        return this.storage.get(this.index(x, y, z));
+    }
+
+    public int getPaletteSize() {
+        return this.palette.size();
+    }
+
+    @Nullable
+    public BlockState getPaletteState(int id) {
+        return this.palette.get(id);
+    }
+
+    /**
+     * Copies every captured position and block entity of another snapshot into this one. The other
+     * snapshot's box must be inside this snapshot's box.
+     */
+    public void copyFrom(BlockSnapshot other) {
+        var box = other.box;
+        var remap = new int[other.palette.size()];
+        for (int id = 1; id < remap.length; id++) {
+            remap[id] = this.idFor(other.palette.get(id));
+        }
+
+        int i = 0;
+        for (int y = box.minY(); y <= box.maxY(); y++) {
+            for (int z = box.minZ(); z <= box.maxZ(); z++) {
+                int index = this.index(box.minX(), y, z);
+
+                for (int x = box.minX(); x <= box.maxX(); x++, i++, index++) {
+                    int id = other.storage.get(i);
+                    if (id != 0 && this.storage.getAndSet(index, remap[id]) == 0) {
+                        this.captured++;
+                    }
+                }
+            }
+        }
+
+        if (other.blockEntities != null) {
+            for (var entry : other.blockEntities.int2ObjectEntrySet()) {
+                int index = entry.getIntKey();
+                int x = index % other.sizeX, z = (index / other.sizeX) % other.sizeZ, y = index / (other.sizeX * other.sizeZ);
+                this.setBlockEntity(box.minX() + x, box.minY() + y, box.minZ() + z, entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * @param tag Block entity data without id or position, as saved by {@link net.minecraft.world.level.block.entity.BlockEntity#saveWithoutMetadata()}
+     */
+    public void setBlockEntity(BlockPos pos, CompoundTag tag) {
+        this.setBlockEntity(pos.getX(), pos.getY(), pos.getZ(), tag);
+    }
+
+    public void setBlockEntity(int x, int y, int z, CompoundTag tag) {
+        if (this.blockEntities == null) {
+            this.blockEntities = new Int2ObjectOpenHashMap<>();
+        }
+        this.blockEntities.put(this.index(x, y, z), tag);
+    }
+
+    /**
+     * @return The captured block entity data at this position, or null if there is none
+     */
+    @Nullable
+    public CompoundTag getBlockEntity(BlockPos pos) {
+        return this.getBlockEntity(pos.getX(), pos.getY(), pos.getZ());
+    }
+
+    @Nullable
+    @Override
+    public CompoundTag getBlockEntity(int x, int y, int z) {
+        return this.blockEntities == null ? null : this.blockEntities.get(this.index(x, y, z));
+    }
+
+    /**
+     * @param tag Entity data as saved by {@link net.minecraft.world.entity.Entity#save(CompoundTag)}, in the same coordinates as the box
+     */
+    public void addEntity(CompoundTag tag) {
+        if (this.entities == null) {
+            this.entities = new ArrayList<>();
+        }
+        this.entities.add(tag);
+    }
+
+    @Override
+    public List<CompoundTag> getEntities() {
+        return this.entities == null ? List.of() : this.entities;
+    }
+
+    private int idFor(BlockState state) {
+        int id = this.paletteIds.getInt(state);
+
+        if (id == -1) {
+            id = this.palette.size();
+            this.palette.add(state);
+            this.paletteIds.put(state, id);
+
+            if (id >= 1 << this.storage.getBits()) {
+                this.resize(Mth.ceillog2(this.palette.size()));
+            }
+        }
+
+        return id;
+    }
+
+    private void resize(int bits) {
+        var old = this.storage;
+        var resized = new SimpleBitStorage(bits, this.volume);
+
+        for (int i = 0; i < this.volume; i++) {
+            resized.set(i, old.get(i));
+        }
+
+        this.storage = resized;
+    }
+
+    /**
+     * @return Approximate number of bytes of heap used by this snapshot
+     */
+    public long estimateBytes() {
+        long bytes = 8L * this.storage.getRaw().length + 48L * this.palette.size() + 64L;
+        // NBT size is not tracked, so assume a typical small block entity or mob
+        if (this.blockEntities != null) {
+            bytes += 256L * this.blockEntities.size();
+        }
+        if (this.entities != null) {
+            bytes += 512L * this.entities.size();
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 thedarkcolour
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ */
+
+package thedarkcolour.modkit.wand;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.minecraft.ChatFormatting;
+import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.network.chat.ClickEvent;
+import net.minecraft.network.chat.Component;
+import net.minecraft.network.chat.HoverEvent;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.entity.EntityType;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.phys.AABB;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Counts the entities of a level per type and per chunk, then prints the most common types and the chunks
+ * with the most entities to the player's chat. Each chunk in the report can be clicked to teleport to it.
+ * <p>
+ * The job walks the level's entity section storage one loaded chunk at a time, through the level's entity
+ * getter, and counts a batch of chunks per tick. Only the positions of the loaded chunks are remembered between
+ * ticks, never the entities themselves. Entities that move between chunks during the census can be counted
+ * twice or missed, which does not matter for finding the busiest chunks.
+ */
+public class CensusJob extends WandJob {
+    // rows of each table printed to chat
+    private static final int MAX_ROWS = 10;
+
+    // loaded chunks when the job was created, packed with ChunkPos.toLong
+    private final long[] loadedChunks;
+    private final Object2IntOpenHashMap<EntityType<?>> types = new Object2IntOpenHashMap<>();
+    // keyed by ChunkPos.toLong
+    private final Long2ObjectMap<Object2IntOpenHashMap<EntityType<?>>> chunks = new Long2ObjectOpenHashMap<>();
+    private int index;
+    private int counted;
+
+    public CensusJob(ServerLevel level, UUID owner) {
+        this(level, owner, LoadedChunks.get(level));
+    }
+
+    private CensusJob(ServerLevel level, UUID owner, long[] loadedChunks) {
+        super(level, owner, "Counting entities", loadedChunks.length);
+        this.loadedChunks = loadedChunks;
+    }
+
+    @Override
+    protected int run(int maxBlocks) {
+        var entities = this.level.getEntities();
+        // entities can be above or below the build height
+        int minY = Level.MIN_ENTITY_SPAWN_Y, maxY = Level.MAX_ENTITY_SPAWN_Y;
+        // every chunk costs one unit even if it is empty, so that a tick never walks every empty chunk at once
+        int count = 0;
+
+        while (count < maxBlocks && this.index < this.loadedChunks.length) {
+            var key = this.loadedChunks[this.index++];
+            var pos = new ChunkPos(key);
+            int before = this.counted;
+
+            // entities whose bounding box sticks out of their chunk are found from neighboring chunks too, but only counted in their own
+            entities.get(new AABB(pos.getMinBlockX(), minY, pos.getMinBlockZ(), pos.getMaxBlockX() + 1, maxY, pos.getMaxBlockZ() + 1), entity -> {
+                if (entity.chunkPosition().toLong() == key) {
+                    var type = entity.getType();
+                    this.types.addTo(type, 1);
+                    this.chunks.computeIfAbsent(key, k -> new Object2IntOpenHashMap<>()).addTo(type, 1);
+                    this.counted++;
+                }
+            });
+            count += 1 + this.counted - before;
+        }
+
+        this.done = this.index == this.loadedChunks.length;
+        this.processed = this.index;
+        return count;
+    }
+
+    @Override
+    protected void finish(boolean cancelled) {
+        if (cancelled) {
+            this.sendMessage(Component.literal("Cancelled entity census"));
+            return;
+        }
+        var player = this.getOwner();
+        if (player == null) return;
+
+        player.sendSystemMessage(Component.literal(String.format("%d entities of %d types in %d chunks of %s",
+                this.counted, this.types.size(), this.chunks.size(), this.level.dimension().location())).withStyle(ChatFormatting.GOLD));
+
+        var typeRows = new ArrayList<>(this.types.object2IntEntrySet());
+        typeRows.sort(Comparator.comparingInt(Object2IntMap.Entry<EntityType<?>>::getIntValue).reversed());
+        for (int i = 0; i < Math.min(MAX_ROWS, typeRows.size()); i++) {
+            var row = typeRows.get(i);
+            player.sendSystemMessage(Component.literal(String.format("%8d ", row.getIntValue()))
+                    .append(Component.literal(BuiltInRegistries.ENTITY_TYPE.getKey(row.getKey()).toString()).withStyle(ChatFormatting.GRAY)));
+        }
+
+        player.sendSystemMessage(Component.literal("Busiest chunks:").withStyle(ChatFormatting.GOLD));
+        var chunkRows = new ArrayList<>(this.chunks.long2ObjectEntrySet());
+        chunkRows.sort(Comparator.comparingInt((Long2ObjectMap.Entry<Object2IntOpenHashMap<EntityType<?>>> entry) -> total(entry.getValue())).reversed());
+        for (int i = 0; i < Math.min(MAX_ROWS, chunkRows.size()); i++) {
+            var row = chunkRows.get(i);
+            var pos = new ChunkPos(row.getLongKey());
+            Object2IntMap.Entry<EntityType<?>> top = null;
+            for (var entry : row.getValue().object2IntEntrySet()) {
+                if (top == null || entry.getIntValue() > top.getIntValue()) {
+                    top = entry;
+                }
+            }
+            var command = String.format("/execute in %s run tp @s %d ~ %d", this.level.dimension().location(), pos.getMiddleBlockX(), pos.getMiddleBlockZ());
+
+            player.sendSystemMessage(Component.literal(String.format("%8d ", total(row.getValue())))
+                    .append(Component.literal(String.format("[%d, %d]", pos.x, pos.z)).withStyle(style -> style
+                            .withColor(ChatFormatting.GREEN)
+                            .withClickEvent(new ClickEvent(ClickEvent.Action.SUGGEST_COMMAND, command))
+                            .withHoverEvent(new HoverEvent(HoverEvent.Action.SHOW_TEXT, Component.literal("Click to teleport")))))
+                    .append(Component.literal(String.format(" mostly %s (%d)", BuiltInRegistries.ENTITY_TYPE.getKey(top.getKey()), top.getIntValue())).withStyle(ChatFormatting.GRAY)));
+        }
+    }
+
+    private static int total(Object2IntMap<EntityType<?>> types) {
+        var total = 0;
+        for (var count : types.values()) {
+            total += count;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 thedarkcolour
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ */
+
+package thedarkcolour.modkit.wand;
+
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+
+/**
+ * Blocks that can be pasted by the Clone Wand, either copied in game ({@link BlockSnapshot}) or loaded
+ * from a schematic file ({@link MappedSchematic}). Coordinates are relative to the position the clipboard
+ * was copied from, so pasting at an anchor moves the box by the anchor.
+ * <p>
+ * Clipboards are not modified after they are created and can be read from any thread.
+ */
+public interface Clipboard {
+    BoundingBox box();
+
+    /**
+     * @return The state at this position, or null if nothing was captured there. The position must be inside the box.
+     */
+    @Nullable
+    BlockState get(int x, int y, int z);
+
+    /**
+     * @return Block entity data without id or position, or null if there is none
+     */
+    @Nullable
+    CompoundTag getBlockEntity(int x, int y, int z);
+
+    /**
+     * @return Saved entities, with positions relative to the same origin as the box
+     */
+    List<CompoundTag> getEntities();
+
+    /**
+     * @return The rotation and mirror to apply to entities when they are spawned. Their positions in {@link #getEntities()} are already transformed.
+     */
+    default ClipboardTransform getTransform() {
+        return ClipboardTransform.NONE;
+    }
+
+    default long volume() {
+        var box = this.box();
+        return (long) box.getXSpan() * box.getYSpan() * box.getZSpan();
+    }
+}
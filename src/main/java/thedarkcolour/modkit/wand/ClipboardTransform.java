@@ -0,0 +1,133 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 thedarkcolour
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ */
+
+package thedarkcolour.modkit.wand;
+
+import net.minecraft.world.level.block.Mirror;
+import net.minecraft.world.level.block.Rotation;
+import net.minecraft.world.level.block.state.BlockState;
+
+/**
+ * A mirror followed by a rotation around the clipboard's origin, the same order vanilla structure
+ * templates use. Only the x and z axes are affected.
+ */
+public record ClipboardTransform(Mirror mirror, Rotation rotation) {
+    public static final ClipboardTransform NONE = new ClipboardTransform(Mirror.NONE, Rotation.NONE);
+
+    public boolean isIdentity() {
+        return this.mirror == Mirror.NONE && this.rotation == Rotation.NONE;
+    }
+
+    /**
+     * @return This transform followed by a clockwise rotation
+     */
+    public ClipboardTransform rotated(Rotation rotation) {
+        return new ClipboardTransform(this.mirror, this.rotation.getRotated(rotation));
+    }
+
+    /**
+     * @return This transform with an extra mirror applied before it, in the clipboard's own orientation
+     */
+    public ClipboardTransform flipped(Mirror mirror) {
+        if (mirror == Mirror.NONE) {
+            return this;
+        } else if (this.mirror == Mirror.NONE) {
+            return new ClipboardTransform(mirror, this.rotation);
+        } else if (this.mirror == mirror) {
+            return new ClipboardTransform(Mirror.NONE, this.rotation);
+        } else {
+            // mirroring both axes is a half turn
+            return new ClipboardTransform(Mirror.NONE, this.rotation.getRotated(Rotation.CLOCKWISE_180));
+        }
+    }
+
+    public BlockState apply(BlockState state) {
+        return state.mirror(this.mirror).rotate(this.rotation);
+    }
+
+    public int applyX(int x, int z) {
+        if (this.mirror == Mirror.FRONT_BACK) x = -x;
+        if (this.mirror == Mirror.LEFT_RIGHT) z = -z;
+
+        return switch (this.rotation) {
+            case NONE -> x;
+            case CLOCKWISE_90 -> -z;
+            case CLOCKWISE_180 -> -x;
+            case COUNTERCLOCKWISE_90 -> z;
+        };
+    }
+
+    public int applyZ(int x, int z) {
+        if (this.mirror == Mirror.FRONT_BACK) x = -x;
+        if (this.mirror == Mirror.LEFT_RIGHT) z = -z;
+
+        return switch (this.rotation) {
+            case NONE -> z;
+            case CLOCKWISE_90 -> x;
+            case CLOCKWISE_180 -> -z;
+            case COUNTERCLOCKWISE_90 -> -x;
+        };
+    }
+
+    // inverse: undo the rotation, then the mirror (which is its own inverse)
+    public int inverseX(int x, int z) {
+        int rx = switch (this.rotation) {
+            case NONE -> x;
+            case CLOCKWISE_90 -> z;
+            case CLOCKWISE_180 -> -x;
+            case COUNTERCLOCKWISE_90 -> -z;
+        };
+        return this.mirror == Mirror.FRONT_BACK ? -rx : rx;
+    }
+
+    public int inverseZ(int x, int z) {
+        int rz = switch (this.rotation) {
+            case NONE -> z;
+            case CLOCKWISE_90 -> -x;
+            case CLOCKWISE_180 -> -z;
+            case COUNTERCLOCKWISE_90 -> x;
+        };
+        return this.mirror == Mirror.LEFT_RIGHT ? -rz : rz;
+    }
+
+    /**
+     * Transforms a continuous x coordinate, where block {@code x} covers {@code [x, x + 1)}.
+     */
+    public double applyX(double x, double z) {
+        // block x maps to block -x, so the continuous coordinate maps to 1 - x
+        if (this.mirror == Mirror.FRONT_BACK) x = 1 - x;
+        if (this.mirror == Mirror.LEFT_RIGHT) z = 1 - z;
+
+        return switch (this.rotation) {
+            case NONE -> x;
+            case CLOCKWISE_90 -> 1 - z;
+            case CLOCKWISE_180 -> 1 - x;
+            case COUNTERCLOCKWISE_90 -> z;
+        };
+    }
+
+    public double applyZ(double x, double z) {
+        if (this.mirror == Mirror.FRONT_BACK) x = 1 - x;
+        if (this.mirror == Mirror.LEFT_RIGHT) z = 1 - z;
+
+        return switch (this.rotation) {
+            case NONE -> z;
+            case CLOCKWISE_90 -> x;
+            case CLOCKWISE_180 -> 1 - z;
+            case COUNTERCLOCKWISE_90 -> 1 - x;
+        };
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 thedarkcolour
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ */
+
+package thedarkcolour.modkit.wand;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.core.BlockPos;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.network.chat.Component;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.PalettedContainer;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+import thedarkcolour.modkit.MKConfig;
+import thedarkcolour.modkit.ModKit;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Copies the blocks and block entities of a box into a clipboard, which is a snapshot whose box is relative
+ * to an origin. Entities are copied too if enabled in the config.
+ * <p>
+ * Block entities are saved on the server thread, while the blocks of each section are read into snapshots
+ * on the background executor and merged into the clipboard off-thread, see {@link SectionSnapshotJob}.
+ */
+public class CopyJob extends SectionSnapshotJob<BlockSnapshot, BlockSnapshot> {
+    private final BlockPos origin;
+    private final Consumer<BlockSnapshot> sink;
+    private final Component doneMessage;
+
+    // keyed by BlockPos.asLong of the position relative to the origin, only used on the server thread
+    private final Long2ObjectMap<CompoundTag> blockEntities = new Long2ObjectOpenHashMap<>();
+
+    public CopyJob(ServerLevel level, UUID owner, BoundingBox box, BlockPos origin, Consumer<BlockSnapshot> sink, Component doneMessage) {
+        super(level, owner, "Copying", box);
+        this.origin = origin;
+        this.sink = sink;
+        this.doneMessage = doneMessage;
+    }
+
+    @Override
+    protected void captureChunk(LevelChunk chunk) {
+        for (var entry : chunk.getBlockEntities().entrySet()) {
+            var pos = entry.getKey();
+
+            if (this.box.isInside(pos)) {
+                var relative = pos.subtract(this.origin);
+                this.blockEntities.put(relative.asLong(), entry.getValue().saveWithoutMetadata());
+            }
+        }
+    }
+
+    @Override
+    protected BlockSnapshot readSection(PalettedContainer<BlockState> states, BoundingBox sectionBox) {
+        int ox = this.origin.getX(), oy = this.origin.getY(), oz = this.origin.getZ();
+        var snapshot = new BlockSnapshot(sectionBox.moved(-ox, -oy, -oz));
+
+        for (int y = sectionBox.minY(); y <= sectionBox.maxY(); y++) {
+            for (int z = sectionBox.minZ(); z <= sectionBox.maxZ(); z++) {
+                for (int x = sectionBox.minX(); x <= sectionBox.maxX(); x++) {
+                    snapshot.set(x - ox, y - oy, z - oz, states.get(x & 15, y & 15, z & 15));
+                }
+            }
+        }
+
+        return snapshot;
+    }
+
+    @Override
+    protected BlockSnapshot merge(List<BlockSnapshot> sections) {
+        var clipboard = new BlockSnapshot(this.box.moved(-this.origin.getX(), -this.origin.getY(), -this.origin.getZ()));
+
+        for (var section : sections) {
+            clipboard.copyFrom(section);
+        }
+
+        return clipboard;
+    }
+
+    @Override
+    protected void finish(boolean cancelled) {
+        if (cancelled) {
+            this.sendMessage(Component.literal("Cancelled copy"));
+            return;
+        }
+
+        BlockSnapshot clipboard;
+        try {
+            clipboard = this.getResult();
+        } catch (Exception e) {
+            ModKit.LOGGER.error("Failed to copy blocks", e);
+            this.sendMessage(Component.literal("Failed to copy blocks"));
+            return;
+        }
+
+        for (var entry : this.blockEntities.long2ObjectEntrySet()) {
+            clipboard.setBlockEntity(BlockPos.of(entry.getLongKey()), entry.getValue());
+        }
+        if (MKConfig.CLIPBOARD_ENTITIES.get()) {
+            EntityTags.capture(this.level, this.box, this.origin, clipboard);
+        }
+
+        this.sink.accept(clipboard);
+        this.sendMessage(this.doneMessage);
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 thedarkcolour
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ */
+
+package thedarkcolour.modkit.wand;
+
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import com.mojang.brigadier.exceptions.DynamicCommandExceptionType;
+import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.core.registries.Registries;
+import net.minecraft.network.chat.Component;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.tags.TagKey;
+import net.minecraft.world.entity.Entity;
+import net.minecraft.world.entity.Display;
+import net.minecraft.world.entity.EntityType;
+import net.minecraft.world.entity.Marker;
+import net.minecraft.world.entity.OwnableEntity;
+import net.minecraft.world.entity.decoration.ArmorStand;
+import net.minecraft.world.entity.decoration.HangingEntity;
+import net.minecraft.world.entity.player.Player;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Restricts which entities the Kill Wand purges, written like {@code zombie,#minecraft:raiders}. Entity
+ * types can be listed by id or by tag with a leading {@code #}, a leading {@code !} inverts the filter,
+ * so {@code !item} purges everything except dropped items, and {@code all} matches every type. Players never match.
+ * <p>
+ * Protected entities only match if their type is listed by id, or if the filter includes protected entities.
+ * Decorations (paintings, item frames, armor stands, displays and markers), tamed animals and named
+ * entities are protected, so that a broad filter like {@code all} or {@code !item} does not wipe out builds and pets.
+ */
+public final class EntityFilter implements Predicate<Entity> {
+    private static final DynamicCommandExceptionType UNKNOWN_ENTITY = new DynamicCommandExceptionType(name -> Component.literal("Unknown entity type " + name));
+    private static final DynamicCommandExceptionType INVALID_TAG = new DynamicCommandExceptionType(name -> Component.literal("Invalid entity type tag " + name));
+
+    private final Set<EntityType<?>> types;
+    private final List<TagKey<EntityType<?>>> tags;
+    private final boolean invert;
+    private final boolean includeProtected;
+
+    private EntityFilter(Set<EntityType<?>> types, List<TagKey<EntityType<?>>> tags, boolean invert, boolean includeProtected) {
+        this.types = types;
+        this.tags = tags;
+        this.invert = invert;
+        this.includeProtected = includeProtected;
+    }
+
+    /**
+     * @param includeProtected Whether protected entities match without being listed by id
+     */
+    public static EntityFilter parse(String filter, boolean includeProtected) throws CommandSyntaxException {
+        filter = filter.trim();
+        if (filter.equals("all")) {
+            return new EntityFilter(Set.of(), List.of(), true, includeProtected);
+        }
+
+        boolean invert = filter.startsWith("!");
+        if (invert) {
+            filter = filter.substring(1);
+        }
+
+        var types = new HashSet<EntityType<?>>();
+        var tags = new ArrayList<TagKey<EntityType<?>>>();
+
+        for (var entry : filter.split(",")) {
+            entry = entry.trim();
+
+            if (entry.startsWith("#")) {
+                var id = ResourceLocation.tryParse(entry.substring(1));
+                if (id == null) {
+                    throw INVALID_TAG.create(entry);
+                }
+                tags.add(TagKey.create(Registries.ENTITY_TYPE, id));
+            } else {
+                var id = ResourceLocation.tryParse(entry);
+                var type = id == null ? null : BuiltInRegistries.ENTITY_TYPE.getOptional(id).orElse(null);
+                if (type == null) {
+                    throw UNKNOWN_ENTITY.create(entry);
+                }
+                types.add(type);
+            }
+        }
+
+        return new EntityFilter(types, tags, invert, includeProtected);
+    }
+
+    @Override
+    public boolean test(Entity entity) {
+        if (entity instanceof Player) {
+            return false;
+        }
+
+        var type = entity.getType();
+        var listed = this.types.contains(type);
+        var matches = listed;
+        for (int i = 0; !matches && i < this.tags.size(); i++) {
+            matches = type.is(this.tags.get(i));
+        }
+        if (matches == this.invert) {
+            return false;
+        }
+
+        // listing a type by id is the only way to opt in for a single type
+        return this.includeProtected || listed && !this.invert || !isProtected(entity);
+    }
+
+    /**
+     * @return Whether the entity is a decoration, someone's pet or has a name, and should not be purged by accident
+     */
+    public static boolean isProtected(Entity entity) {
+        return entity instanceof HangingEntity
+                || entity instanceof ArmorStand
+                || entity instanceof Display
+                || entity instanceof Marker
+                || entity instanceof OwnableEntity ownable && ownable.getOwnerUUID() != null
+                || entity.hasCustomName();
+    }
+}
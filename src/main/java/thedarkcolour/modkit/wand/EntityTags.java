@@ -0,0 +1,125 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 thedarkcolour
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ */
+
+package thedarkcolour.modkit.wand;
+
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.DoubleTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.Tag;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.entity.Entity;
+import net.minecraft.world.entity.EntityType;
+import net.minecraft.world.entity.player.Player;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+import net.minecraft.world.phys.AABB;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Saves entities into snapshots relative to an origin and spawns them back at another position.
+ */
+final class EntityTags {
+    private EntityTags() {
+    }
+
+    /**
+     * Saves all entities inside a box except players and passengers, which are saved along with their vehicle.
+     */
+    static void capture(ServerLevel level, BoundingBox box, BlockPos origin, BlockSnapshot snapshot) {
+        for (var entity : level.getEntities((Entity) null, AABB.of(box), entity -> !(entity instanceof Player) && !entity.isPassenger())) {
+            var tag = save(entity);
+            if (tag != null) {
+                move(tag, -origin.getX(), -origin.getY(), -origin.getZ());
+                snapshot.addEntity(tag);
+            }
+        }
+    }
+
+    /**
+     * Spawns a copy of a saved entity and its passengers, offset by the given anchor and facing
+     * according to the transform. The saved position should already be transformed.
+     */
+    static void spawn(ServerLevel level, CompoundTag tag, BlockPos anchor, ClipboardTransform transform) {
+        var copy = tag.copy();
+        move(copy, anchor.getX(), anchor.getY(), anchor.getZ());
+
+        var entity = EntityType.loadEntityRecursive(copy, level, e -> {
+            if (!transform.isIdentity()) {
+                // same as StructureTemplate, also turns hanging entities to their new wall
+                float yRot = e.rotate(transform.rotation());
+                yRot += e.mirror(transform.mirror()) - e.getYRot();
+                e.moveTo(e.getX(), e.getY(), e.getZ(), yRot, e.getXRot());
+            }
+            return e;
+        });
+        if (entity != null) {
+            level.tryAddFreshEntityWithPassengers(entity);
+        }
+    }
+
+    /**
+     * @return The chunk a saved entity will be spawned in when offset by the given anchor
+     */
+    static ChunkPos getChunkPos(CompoundTag tag, BlockPos anchor) {
+        var pos = tag.getList("Pos", Tag.TAG_DOUBLE);
+        return new ChunkPos(SectionPos.posToSectionCoord(pos.getDouble(0) + anchor.getX()), SectionPos.posToSectionCoord(pos.getDouble(2) + anchor.getZ()));
+    }
+
+    @Nullable
+    private static CompoundTag save(Entity entity) {
+        var tag = new CompoundTag();
+        if (!entity.save(tag)) {
+            return null;
+        }
+        removeUuids(tag);
+        return tag;
+    }
+
+    // the copies get new UUIDs when loaded, otherwise pasting twice would clash with the first copy
+    private static void removeUuids(CompoundTag tag) {
+        tag.remove("UUID");
+
+        var passengers = tag.getList("Passengers", Tag.TAG_COMPOUND);
+        for (int i = 0; i < passengers.size(); i++) {
+            removeUuids(passengers.getCompound(i));
+        }
+    }
+
+    private static void move(CompoundTag tag, int dx, int dy, int dz) {
+        var pos = tag.getList("Pos", Tag.TAG_DOUBLE);
+        if (pos.size() == 3) {
+            var moved = new ListTag();
+            moved.add(DoubleTag.valueOf(pos.getDouble(0) + dx));
+            moved.add(DoubleTag.valueOf(pos.getDouble(1) + dy));
+            moved.add(DoubleTag.valueOf(pos.getDouble(2) + dz));
+            tag.put("Pos", moved);
+        }
+        // hanging entities such as paintings and item frames are positioned by the block they hang on
+        if (tag.contains("TileX", Tag.TAG_INT)) {
+            tag.putInt("TileX", tag.getInt("TileX") + dx);
+            tag.putInt("TileY", tag.getInt("TileY") + dy);
+            tag.putInt("TileZ", tag.getInt("TileZ") + dz);
+        }
+
+        var passengers = tag.getList("Passengers", Tag.TAG_COMPOUND);
+        for (int i = 0; i < passengers.size(); i++) {
+            move(passengers.getCompound(i), dx, dy, dz);
+        }
+    }
+}
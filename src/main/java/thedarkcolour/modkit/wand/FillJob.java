@@ -0,0 +1,128 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 thedarkcolour
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ */
+
+package thedarkcolour.modkit.wand;
+
+import net.minecraft.core.BlockPos;
+import net.minecraft.network.chat.Component;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Fills a shape with a pattern of block states, optionally only replacing blocks matched by a mask,
+ * and records the replaced blocks so the fill can be undone. Cuboids are walked position by position
+ * with a {@link SectionCursor}, other shapes run by run with a {@link ShapeRasterizer}. Both visit
+ * the box one chunk section at a time.
+ */
+public class FillJob extends WandJob {
+    private final BoundingBox box;
+    // exactly one of these is used, the cursor for cuboids and the rasterizer for everything else
+    @Nullable
+    private final SectionCursor cursor;
+    @Nullable
+    private final ShapeRasterizer rasterizer;
+    private final BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+    private final FillPattern pattern;
+    @Nullable
+    private final ReplaceMask mask;
+    private final SplittableRandom random = new SplittableRandom();
+    private final BatchedBlockWriter writer;
+    private final BlockSnapshot undo;
+    private final Consumer<BlockSnapshot> undoSink;
+    private final Component doneMessage;
+    // position in the current run, starts past the end so that the first call to run() fetches a run
+    private int x = 1, maxX;
+
+    /**
+     * @param undoSink    Receives the replaced states once the job is finished or cancelled
+     * @param doneMessage Shown to the owner once the job is finished
+     */
+    public FillJob(ServerLevel level, UUID owner, BoundingBox box, Shape shape, FillPattern pattern, @Nullable ReplaceMask mask, WriteMode mode, Consumer<BlockSnapshot> undoSink, Component doneMessage) {
+        this(level, owner, box, shape == Shape.CUBOID ? null : new ShapeRasterizer(shape, box), pattern, mask, mode, undoSink, doneMessage);
+    }
+
+    private FillJob(ServerLevel level, UUID owner, BoundingBox box, @Nullable ShapeRasterizer rasterizer, FillPattern pattern, @Nullable ReplaceMask mask, WriteMode mode, Consumer<BlockSnapshot> undoSink, Component doneMessage) {
+        super(level, owner, "Filling", rasterizer == null ? (long) box.getXSpan() * box.getYSpan() * box.getZSpan() : rasterizer.countBlocks());
+        this.box = box;
+        this.cursor = rasterizer == null ? new SectionCursor(box) : null;
+        this.rasterizer = rasterizer;
+        this.pattern = pattern;
+        this.mask = mask;
+        this.undo = new BlockSnapshot(box);
+        this.writer = new BatchedBlockWriter(level, this.undo, mode);
+        this.undoSink = undoSink;
+        this.doneMessage = doneMessage;
+    }
+
+    @Override
+    protected int run(int maxBlocks) {
+        int count = 0;
+
+        while (count < maxBlocks) {
+            BlockPos pos;
+            if (this.cursor != null) {
+                if (!this.cursor.next()) {
+                    this.done = true;
+                    break;
+                }
+                pos = this.cursor.pos();
+            } else {
+                var rasterizer = this.rasterizer;
+                if (this.x > this.maxX) {
+                    if (!rasterizer.next()) {
+                        this.done = true;
+                        break;
+                    }
+                    this.x = rasterizer.minX();
+                    this.maxX = rasterizer.maxX();
+                }
+                pos = this.pos.set(this.x++, rasterizer.y(), rasterizer.z());
+            }
+
+            // null outside the build height, where the writer ignores writes anyway
+            var current = this.mask == null ? null : this.writer.getBlockState(pos);
+            if (this.mask == null || current != null && this.mask.test(current)) {
+                this.writer.setBlockState(pos, this.pattern.pick(this.random));
+            }
+            count++;
+        }
+
+        this.processed += count;
+        return count;
+    }
+
+    @Override
+    protected void endTick() {
+        this.writer.flush();
+    }
+
+    @Override
+    protected void finish(boolean cancelled) {
+        this.writer.finish(this.box);
+
+        // nothing to undo if every position already had the right state
+        if (!this.undo.isEmpty()) {
+            this.undoSink.accept(this.undo);
+        }
+
+        this.sendMessage(cancelled ? Component.literal("Cancelled fill after " + this.processed + " blocks (hold use to undo)") : this.doneMessage);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 thedarkcolour
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ */
+
+package thedarkcolour.modkit.wand;
+
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import com.mojang.brigadier.exceptions.SimpleCommandExceptionType;
+import net.minecraft.commands.arguments.blocks.BlockStateParser;
+import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.network.chat.Component;
+import net.minecraft.world.level.block.state.BlockState;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Weighted random block states to fill with, written like {@code 70%stone,30%andesite}. Entries
+ * without a weight have weight 1, and states can have properties like {@code oak_log[axis=x]}.
+ * <p>
+ * The weights are compiled into a table with one slot per unit of weight, so picking a state is a
+ * single random array index.
+ */
+public final class FillPattern {
+    private static final int MAX_TOTAL_WEIGHT = 10000;
+    private static final SimpleCommandExceptionType TOO_HEAVY = new SimpleCommandExceptionType(Component.literal("Pattern weights can add up to at most " + MAX_TOTAL_WEIGHT));
+    private static final SimpleCommandExceptionType BAD_WEIGHT = new SimpleCommandExceptionType(Component.literal("Pattern weights must be positive whole numbers"));
+
+    private final BlockState[] table;
+
+    private FillPattern(BlockState[] table) {
+        this.table = table;
+    }
+
+    public static FillPattern of(BlockState state) {
+        return new FillPattern(new BlockState[]{state});
+    }
+
+    public static FillPattern parse(String pattern) throws CommandSyntaxException {
+        List<BlockState> states = new ArrayList<>();
+        List<Integer> weights = new ArrayList<>();
+        int total = 0;
+
+        for (var entry : splitEntries(pattern)) {
+            int weight = 1;
+            int percent = entry.indexOf('%');
+            if (percent != -1) {
+                try {
+                    weight = Integer.parseInt(entry.substring(0, percent).trim());
+                } catch (NumberFormatException e) {
+                    throw BAD_WEIGHT.create();
+                }
+                if (weight <= 0) {
+                    throw BAD_WEIGHT.create();
+                }
+                entry = entry.substring(percent + 1);
+            }
+
+            states.add(parseState(entry));
+            weights.add(weight);
+            total += weight;
+            if (total > MAX_TOTAL_WEIGHT) {
+                throw TOO_HEAVY.create();
+            }
+        }
+
+        var table = new BlockState[total];
+        int slot = 0;
+        for (int i = 0; i < states.size(); i++) {
+            for (int j = 0; j < weights.get(i); j++) {
+                table[slot++] = states.get(i);
+            }
+        }
+        return new FillPattern(table);
+    }
+
+    static BlockState parseState(String state) throws CommandSyntaxException {
+        return BlockStateParser.parseForBlock(BuiltInRegistries.BLOCK.asLookup(), state.trim(), false).blockState();
+    }
+
+    // splits on commas that are not inside block state properties
+    static List<String> splitEntries(String list) {
+        List<String> entries = new ArrayList<>();
+        int depth = 0, start = 0;
+
+        for (int i = 0; i < list.length(); i++) {
+            char c = list.charAt(i);
+            if (c == '[') {
+                depth++;
+            } else if (c == ']') {
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                entries.add(list.substring(start, i));
+                start = i + 1;
+            }
+        }
+        entries.add(list.substring(start));
+
+        return entries;
+    }
+
+    public BlockState pick(SplittableRandom random) {
+        return this.table.length == 1 ? this.table[0] : this.table[random.nextInt(this.table.length)];
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 thedarkcolour
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ */
+
+package thedarkcolour.modkit.wand;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayFIFOQueue;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Direction;
+import net.minecraft.core.SectionPos;
+import net.minecraft.network.chat.Component;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Replaces every block connected to a starting block that has the same state as it, for example the water
+ * of a lake, with a pattern, and records the replaced blocks so the fill can be undone.
+ * <p>
+ * The region is found with a breadth-first search over positions packed with {@link BlockPos#asLong()}, kept
+ * in a primitive queue and visited set, so no position objects are allocated per block. The search is
+ * bounded by a box around the start and stops after a maximum number of blocks, and it can pause between
+ * ticks at any point since its whole state is the queue. Unloaded chunks are treated as a boundary, so
+ * a fill never loads or generates chunks on the server thread.
+ * <p>
+ * The replaced states are captured into one small snapshot per chunk section the fill reaches, which are
+ * merged into a single undo snapshot around the replaced blocks when the job ends. The fill box itself can
+ * be far larger than the number of blocks a fill is allowed to replace, so it is never allocated.
+ */
+public class FloodFillJob extends WandJob {
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private final BoundingBox box;
+    private final BlockState target;
+    private final int maxFilled;
+    private final BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+    private final FillPattern pattern;
+    private final SplittableRandom random = new SplittableRandom();
+    private final BatchedBlockWriter writer;
+    // replaced states of each section, keyed by SectionPos.asLong
+    private final Long2ObjectMap<BlockSnapshot> undoSections = new Long2ObjectOpenHashMap<>();
+    private final Consumer<BlockSnapshot> undoSink;
+    private final Component doneMessage;
+
+    private final LongArrayFIFOQueue queue = new LongArrayFIFOQueue();
+    // every position that has been queued
+    private final LongOpenHashSet visited = new LongOpenHashSet();
+    private int filled;
+    // the last chunk checked for being loaded, keyed by ChunkPos.asLong
+    private long lastChunk = Long.MIN_VALUE;
+    private boolean lastChunkLoaded;
+    private boolean reachedUnloaded;
+    // bounds of the replaced blocks, for neighbor updates
+    private int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE;
+    private int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+
+    /**
+     * @param box         The region the fill can spread in, which must contain the start
+     * @param maxFilled   The fill stops after replacing this many blocks
+     * @param undoSink    Receives the replaced states once the job is finished or cancelled
+     * @param doneMessage Shown to the owner once the job is finished, followed by the number of blocks
+     */
+    public FloodFillJob(ServerLevel level, UUID owner, BlockPos start, BoundingBox box, int maxFilled, FillPattern pattern, WriteMode mode, Consumer<BlockSnapshot> undoSink, Component doneMessage) {
+        super(level, owner, "Filling", maxFilled);
+        this.box = box;
+        this.target = level.getBlockState(start);
+        this.maxFilled = maxFilled;
+        this.pattern = pattern;
+        this.writer = new BatchedBlockWriter(level, null, mode);
+        this.undoSink = undoSink;
+        this.doneMessage = doneMessage;
+
+        this.queue.enqueue(start.asLong());
+        this.visited.add(start.asLong());
+    }
+
+    @Override
+    protected int run(int maxBlocks) {
+        int count = 0;
+
+        while (count < maxBlocks) {
+            if (this.queue.isEmpty() || this.filled >= this.maxFilled) {
+                this.done = true;
+                break;
+            }
+
+            var packed = this.queue.dequeueLong();
+            count++;
+
+            this.pos.set(packed);
+            if (!this.isLoaded(this.pos)) {
+                this.reachedUnloaded = true;
+                continue;
+            }
+            // null outside the build height
+            if (this.writer.getBlockState(this.pos) != this.target) continue;
+
+            var state = this.pattern.pick(this.random);
+            // the previous state is always the target, so only changed positions need to be captured
+            if (state != this.target) {
+                this.capture(this.pos);
+            }
+            this.writer.setBlockState(this.pos, state);
+            this.filled++;
+            this.expandBounds();
+
+            for (var direction : DIRECTIONS) {
+                var next = BlockPos.offset(packed, direction);
+
+                if (this.box.isInside(BlockPos.getX(next), BlockPos.getY(next), BlockPos.getZ(next)) && this.visited.add(next)) {
+                    this.queue.enqueue(next);
+                }
+            }
+        }
+
+        this.processed = this.filled;
+        return count;
+    }
+
+    // neighbors are mostly in the same chunk, so only the last chunk is remembered
+    private boolean isLoaded(BlockPos pos) {
+        int chunkX = SectionPos.blockToSectionCoord(pos.getX()), chunkZ = SectionPos.blockToSectionCoord(pos.getZ());
+        var chunk = ChunkPos.asLong(chunkX, chunkZ);
+        if (chunk != this.lastChunk) {
+            this.lastChunk = chunk;
+            this.lastChunkLoaded = this.level.getChunkSource().getChunkNow(chunkX, chunkZ) != null;
+        }
+        return this.lastChunkLoaded;
+    }
+
+    private void capture(BlockPos pos) {
+        var section = this.undoSections.get(SectionPos.asLong(pos));
+        if (section == null) {
+            int x = pos.getX() & ~15, y = pos.getY() & ~15, z = pos.getZ() & ~15;
+            section = new BlockSnapshot(new BoundingBox(x, y, z, x + 15, y + 15, z + 15));
+            this.undoSections.put(SectionPos.asLong(pos), section);
+        }
+
+        section.set(pos, this.target);
+        if (this.target.hasBlockEntity()) {
+            var blockEntity = this.level.getChunkAt(pos).getBlockEntity(pos, LevelChunk.EntityCreationType.CHECK);
+            if (blockEntity != null) {
+                section.setBlockEntity(pos, blockEntity.saveWithoutMetadata());
+            }
+        }
+    }
+
+    private void expandBounds() {
+        int x = this.pos.getX(), y = this.pos.getY(), z = this.pos.getZ();
+        this.minX = Math.min(this.minX, x);
+        this.minY = Math.min(this.minY, y);
+        this.minZ = Math.min(this.minZ, z);
+        this.maxX = Math.max(this.maxX, x);
+        this.maxY = Math.max(this.maxY, y);
+        this.maxZ = Math.max(this.maxZ, z);
+    }
+
+    @Override
+    protected void endTick() {
+        this.writer.flush();
+    }
+
+    @Override
+    protected void finish(boolean cancelled) {
+        this.writer.finish(this.filled == 0 ? this.box : new BoundingBox(this.minX, this.minY, this.minZ, this.maxX, this.maxY, this.maxZ));
+
+        // nothing to undo if every position already had the right state
+        if (!this.undoSections.isEmpty()) {
+            // the sections of the replaced blocks, so every section snapshot fits inside
+            var undo = new BlockSnapshot(new BoundingBox(this.minX & ~15, this.minY & ~15, this.minZ & ~15, this.maxX | 15, this.maxY | 15, this.maxZ | 15));
+            for (var section : this.undoSections.values()) {
+                undo.copyFrom(section);
+            }
+            this.undoSections.clear();
+            this.undoSink.accept(undo);
+        }
+
+        if (cancelled) {
+            this.sendMessage(Component.literal("Cancelled fill after " + this.filled + " blocks (hold use to undo)"));
+        } else {
+            var limit = this.filled >= this.maxFilled && !this.queue.isEmpty() ? " (stopped at the limit)" : this.reachedUnloaded ? " (stopped at unloaded chunks)" : "";
+            this.sendMessage(this.doneMessage.copy().append(this.filled + " connected blocks" + limit));
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 thedarkcolour
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ */
+
+package thedarkcolour.modkit.wand;
+
+import net.minecraft.network.chat.Component;
+import net.minecraftforge.event.TickEvent;
+import thedarkcolour.modkit.MKConfig;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Runs {@link WandJob}s at the end of every server tick within the block and time budgets from {@link MKConfig}.
+ * Each player's {@link WandSession} has a queue of jobs, and only the first job of each queue runs. The budget
+ * is split evenly between players, so one player's huge fill cannot starve everybody else's small ones.
+ * <p>
+ * Jobs may be submitted and cancelled from any thread, but they only ever run on the server thread.
+ */
+public final class JobScheduler {
+    // smallest amount of work handed to a job at once, so that many players don't thrash over tiny slices
+    private static final int MIN_SLICE = 256;
+    // ticks between action bar progress updates
+    private static final int PROGRESS_INTERVAL = 5;
+
+    private static int ticks;
+
+    private JobScheduler() {
+    }
+
+    public static void submit(WandJob job) {
+        var jobs = WandSession.get(job.getOwnerId()).jobs;
+        jobs.add(job);
+
+        var ahead = jobs.size() - 1;
+        if (ahead > 0) {
+            job.sendMessage(Component.literal("Queued operation (" + ahead + " ahead)"));
+        }
+    }
+
+    public static boolean isBusy(UUID player) {
+        var session = WandSession.getIfPresent(player);
+        return session != null && session.isBusy();
+    }
+
+    /**
+     * Cancels all of a player's jobs. The running job keeps the changes it already made.
+     *
+     * @return Whether the player had any jobs to cancel
+     */
+    public static boolean cancel(UUID player) {
+        var session = WandSession.getIfPresent(player);
+
+        if (session == null || session.jobs.isEmpty()) {
+            return false;
+        } else {
+            for (var job : session.jobs) {
+                job.cancel();
+            }
+            return true;
+        }
+    }
+
+    // immediately stops all of a session's jobs, only called on the server thread
+    static void finishAll(WandSession session) {
+        WandJob job;
+        while ((job = session.jobs.poll()) != null) {
+            job.finish(true);
+        }
+    }
+
+    public static void onServerTick(TickEvent.ServerTickEvent event) {
+        if (event.phase != TickEvent.Phase.END) return;
+
+        List<WandJob> active = new ArrayList<>();
+        for (var session : WandSession.all()) {
+            var job = session.jobs.peek();
+
+            while (job != null && job.isCancelled()) {
+                session.jobs.remove(job);
+                job.finish(true);
+                job = session.jobs.peek();
+            }
+            if (job != null) {
+                active.add(job);
+            }
+        }
+        if (active.isEmpty()) return;
+
+        int budget = MKConfig.JOB_BLOCKS_PER_TICK.get();
+        long deadline = System.nanoTime() + MKConfig.JOB_MICROS_PER_TICK.get() * 1000L;
+
+        List<WandJob> ran = new ArrayList<>(active);
+        // rotate so that the same player doesn't always go first
+        Collections.rotate(active, ticks % active.size());
+
+        outer:
+        while (!active.isEmpty()) {
+            int slice = Math.max(MIN_SLICE, budget / active.size());
+
+            for (var iterator = active.iterator(); iterator.hasNext(); ) {
+                var job = iterator.next();
+                int processed = job.run(Math.min(slice, budget));
+                budget -= processed;
+
+                if (job.isDone()) {
+                    iterator.remove();
+                    complete(job);
+                } else if (processed == 0) {
+                    // job is waiting on something, try again next tick
+                    iterator.remove();
+                }
+
+                if (budget <= 0 || System.nanoTime() >= deadline) {
+                    break outer;
+                }
+            }
+        }
+
+        boolean showProgress = ticks++ % PROGRESS_INTERVAL == 0;
+
+        for (var job : ran) {
+            if (!job.isDone()) {
+                job.endTick();
+
+                if (showProgress) {
+                    job.sendMessage(job.getProgressMessage());
+                }
+            }
+        }
+    }
+
+    private static void complete(WandJob job) {
+        var session = WandSession.getIfPresent(job.getOwnerId());
+
+        if (session != null) {
+            session.jobs.remove(job);
+        }
+
+        job.finish(false);
+    }
+}
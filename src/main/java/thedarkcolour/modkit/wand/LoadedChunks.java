@@ -0,0 +1,74 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 thedarkcolour
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ */
+
+package thedarkcolour.modkit.wand;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.LevelAccessor;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraftforge.event.level.ChunkEvent;
+import net.minecraftforge.event.level.LevelEvent;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Remembers which full chunks are loaded in each server level, since the chunk map does not expose them.
+ * Used to walk a level's entity storage one chunk at a time, see {@link CensusJob}.
+ */
+public final class LoadedChunks {
+    // keyed by ChunkPos.toLong, guarded by the map
+    private static final Map<LevelAccessor, LongOpenHashSet> CHUNKS = new IdentityHashMap<>();
+
+    private LoadedChunks() {
+    }
+
+    /**
+     * @return The positions of the chunks currently loaded in the level, packed with {@link net.minecraft.world.level.ChunkPos#toLong()}
+     */
+    public static long[] get(ServerLevel level) {
+        synchronized (CHUNKS) {
+            var chunks = CHUNKS.get(level);
+            return chunks == null ? new long[0] : chunks.toLongArray();
+        }
+    }
+
+    public static void onChunkLoad(ChunkEvent.Load event) {
+        if (event.getLevel() instanceof ServerLevel level && event.getChunk() instanceof LevelChunk chunk) {
+            synchronized (CHUNKS) {
+                CHUNKS.computeIfAbsent(level, key -> new LongOpenHashSet()).add(chunk.getPos().toLong());
+            }
+        }
+    }
+
+    public static void onChunkUnload(ChunkEvent.Unload event) {
+        if (event.getLevel() instanceof ServerLevel level) {
+            synchronized (CHUNKS) {
+                var chunks = CHUNKS.get(level);
+                if (chunks != null) {
+                    chunks.remove(event.getChunk().getPos().toLong());
+                }
+            }
+        }
+    }
+
+    public static void onLevelUnload(LevelEvent.Unload event) {
+        synchronized (CHUNKS) {
+            CHUNKS.remove(event.getLevel());
+        }
+    }
+}
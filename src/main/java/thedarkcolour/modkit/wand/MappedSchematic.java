@@ -0,0 +1,338 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 thedarkcolour
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ */
+
+package thedarkcolour.modkit.wand;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import net.minecraft.SharedConstants;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.HolderGetter;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.NbtIo;
+import net.minecraft.nbt.NbtUtils;
+import net.minecraft.nbt.Tag;
+import net.minecraft.util.Mth;
+import net.minecraft.util.SimpleBitStorage;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A clipboard backed by a memory-mapped schematic file. Only the header, the block entities and the
+ * entities are read into the heap when the file is opened. Block states are read straight from the
+ * mapping, and each 16x16x16 cell of the box only has its palette decoded the first time it is used,
+ * so large schematics can be pasted without loading them into memory.
+ * <p>
+ * File layout, big-endian:
+ * <pre>
+ * int magic, int version
+ * int minX, minY, minZ, maxX, maxY, maxZ   box relative to the origin
+ * long metadataOffset, int metadataLength
+ * long[cells] cellOffsets                   cells in x-z-y order, starting at the minimum corner of the box
+ * cells:    int paletteSize, int[paletteSize] globalIds, int bits, long[] data (4096 entries, x-z-y)
+ * metadata: uncompressed NBT with the DataVersion, the global palette, block entities and entities
+ * </pre>
+ * Global palette id 0 means "not captured", like in {@link BlockSnapshot}.
+ */
+public final class MappedSchematic implements Clipboard {
+    public static final String EXTENSION = ".mkschem";
+
+    private static final int MAGIC = 0x4D4B5343;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 6 * 4 + 8 + 4;
+    private static final int CELL_VOLUME = 16 * 16 * 16;
+
+    private final ByteBuffer buffer;
+    private final BoundingBox box;
+    private final int cellsX, cellsZ;
+    private final BlockState[] palette;
+    // decoded on first use, racing threads decode the same immutable cell
+    private final Cell[] cells;
+    // keyed by BlockPos.asLong of the position relative to the origin
+    private final Long2ObjectMap<CompoundTag> blockEntities;
+    private final List<CompoundTag> entities;
+
+    private MappedSchematic(ByteBuffer buffer, BoundingBox box, BlockState[] palette, Long2ObjectMap<CompoundTag> blockEntities, List<CompoundTag> entities) {
+        this.buffer = buffer;
+        this.box = box;
+        this.cellsX = cellCount(box.getXSpan());
+        this.cellsZ = cellCount(box.getZSpan());
+        this.cells = new Cell[this.cellsX * cellCount(box.getYSpan()) * this.cellsZ];
+        this.palette = palette;
+        this.blockEntities = blockEntities;
+        this.entities = entities;
+    }
+
+    /**
+     * Maps a schematic file. The file can be closed and deleted afterwards on most systems, but should
+     * not be overwritten in place while the schematic is in use.
+     */
+    public static MappedSchematic open(Path file, HolderGetter<Block> blocks) throws IOException {
+        ByteBuffer buffer;
+        try (var channel = FileChannel.open(file)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a ModKit schematic: " + file);
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported schematic version " + buffer.getInt(4) + ": " + file);
+        }
+
+        var box = new BoundingBox(buffer.getInt(8), buffer.getInt(12), buffer.getInt(16), buffer.getInt(20), buffer.getInt(24), buffer.getInt(28));
+        var metadataBytes = new byte[buffer.getInt(40)];
+        buffer.get(Math.toIntExact(buffer.getLong(32)), metadataBytes);
+        var metadata = NbtIo.read(new DataInputStream(new ByteArrayInputStream(metadataBytes)));
+
+        var paletteTag = metadata.getList("Palette", Tag.TAG_COMPOUND);
+        var palette = new BlockState[paletteTag.size() + 1];
+        for (int i = 0; i < paletteTag.size(); i++) {
+            palette[i + 1] = NbtUtils.readBlockState(blocks, paletteTag.getCompound(i));
+        }
+
+        var blockEntitiesTag = metadata.getList("BlockEntities", Tag.TAG_COMPOUND);
+        Long2ObjectMap<CompoundTag> blockEntities = new Long2ObjectOpenHashMap<>(blockEntitiesTag.size());
+        for (int i = 0; i < blockEntitiesTag.size(); i++) {
+            var blockEntity = blockEntitiesTag.getCompound(i);
+            var pos = blockEntity.getIntArray("Pos");
+            blockEntities.put(BlockPos.asLong(pos[0], pos[1], pos[2]), blockEntity.getCompound("Data"));
+        }
+
+        var entitiesTag = metadata.getList("Entities", Tag.TAG_COMPOUND);
+        List<CompoundTag> entities = new ArrayList<>(entitiesTag.size());
+        for (int i = 0; i < entitiesTag.size(); i++) {
+            entities.add(entitiesTag.getCompound(i));
+        }
+
+        return new MappedSchematic(buffer, box, palette, blockEntities, Collections.unmodifiableList(entities));
+    }
+
+    /**
+     * Writes a clipboard to a schematic file. The file is written next to the target and moved into
+     * place once complete, so a failed save never leaves a truncated schematic behind.
+     */
+    public static void write(Path file, Clipboard clipboard) throws IOException {
+        var box = clipboard.box();
+        int cellsX = cellCount(box.getXSpan()), cellsY = cellCount(box.getYSpan()), cellsZ = cellCount(box.getZSpan());
+        int cellCount = cellsX * cellsY * cellsZ;
+
+        List<BlockState> palette = new ArrayList<>();
+        Reference2IntOpenHashMap<BlockState> paletteIds = new Reference2IntOpenHashMap<>();
+        var blockEntities = new ListTag();
+        var temp = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try (var out = new RandomAccessFile(temp.toFile(), "rw")) {
+            out.setLength(0);
+            out.seek(HEADER_SIZE + 8L * cellCount);
+            var offsets = new long[cellCount];
+            var localIds = new Reference2IntOpenHashMap<BlockState>();
+            localIds.defaultReturnValue(-1);
+
+            for (int cy = 0; cy < cellsY; cy++) {
+                for (int cz = 0; cz < cellsZ; cz++) {
+                    for (int cx = 0; cx < cellsX; cx++) {
+                        offsets[(cy * cellsZ + cz) * cellsX + cx] = out.getFilePointer();
+                        out.write(writeCell(clipboard, box.minX() + cx * 16, box.minY() + cy * 16, box.minZ() + cz * 16, palette, paletteIds, localIds, blockEntities));
+                    }
+                }
+            }
+
+            var metadata = new CompoundTag();
+            metadata.putInt("DataVersion", SharedConstants.getCurrentVersion().getDataVersion().getVersion());
+            var paletteTag = new ListTag();
+            for (var state : palette) {
+                paletteTag.add(NbtUtils.writeBlockState(state));
+            }
+            metadata.put("Palette", paletteTag);
+            metadata.put("BlockEntities", blockEntities);
+            var entities = new ListTag();
+            entities.addAll(clipboard.getEntities());
+            metadata.put("Entities", entities);
+
+            var metadataBytes = new ByteArrayOutputStream();
+            NbtIo.write(metadata, new DataOutputStream(metadataBytes));
+            long metadataOffset = out.getFilePointer();
+            out.write(metadataBytes.toByteArray());
+
+            out.seek(0);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(box.minX());
+            out.writeInt(box.minY());
+            out.writeInt(box.minZ());
+            out.writeInt(box.maxX());
+            out.writeInt(box.maxY());
+            out.writeInt(box.maxZ());
+            out.writeLong(metadataOffset);
+            out.writeInt(metadataBytes.size());
+            var table = ByteBuffer.allocate(8 * cellCount);
+            table.asLongBuffer().put(offsets);
+            out.write(table.array());
+        }
+
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // encodes one cell with its own palette of global ids, collecting block entities along the way
+    private static byte[] writeCell(Clipboard clipboard, int minX, int minY, int minZ, List<BlockState> palette, Reference2IntOpenHashMap<BlockState> paletteIds,
+                                    Reference2IntOpenHashMap<BlockState> localIds, ListTag blockEntities) throws IOException {
+        var box = clipboard.box();
+        var ids = new int[CELL_VOLUME];
+        List<BlockState> localPalette = new ArrayList<>();
+        localIds.clear();
+
+        for (int y = 0; y < 16; y++) {
+            for (int z = 0; z < 16; z++) {
+                for (int x = 0; x < 16; x++) {
+                    int wx = minX + x, wy = minY + y, wz = minZ + z;
+                    BlockState state = null;
+
+                    if (wx <= box.maxX() && wy <= box.maxY() && wz <= box.maxZ()) {
+                        state = clipboard.get(wx, wy, wz);
+
+                        var blockEntity = clipboard.getBlockEntity(wx, wy, wz);
+                        if (blockEntity != null) {
+                            var tag = new CompoundTag();
+                            tag.putIntArray("Pos", new int[]{wx, wy, wz});
+                            tag.put("Data", blockEntity);
+                            blockEntities.add(tag);
+                        }
+                    }
+
+                    // null is the local id of "not captured" too, Reference2IntOpenHashMap supports null keys
+                    int id = localIds.getInt(state);
+                    if (id == -1) {
+                        id = localPalette.size();
+                        localPalette.add(state);
+                        localIds.put(state, id);
+                    }
+                    ids[(y << 8) | (z << 4) | x] = id;
+                }
+            }
+        }
+
+        var bytes = new ByteArrayOutputStream();
+        var out = new DataOutputStream(bytes);
+        out.writeInt(localPalette.size());
+        for (var state : localPalette) {
+            if (state == null) {
+                out.writeInt(0);
+            } else {
+                int global = paletteIds.getOrDefault(state, -1);
+                if (global == -1) {
+                    palette.add(state);
+                    global = palette.size();
+                    paletteIds.put(state, global);
+                }
+                out.writeInt(global);
+            }
+        }
+
+        int bits = localPalette.size() == 1 ? 0 : Mth.ceillog2(localPalette.size());
+        out.writeInt(bits);
+        if (bits != 0) {
+            var storage = new SimpleBitStorage(bits, CELL_VOLUME);
+            for (int i = 0; i < CELL_VOLUME; i++) {
+                storage.set(i, ids[i]);
+            }
+            for (var word : storage.getRaw()) {
+                out.writeLong(word);
+            }
+        }
+
+        return bytes.toByteArray();
+    }
+
+    private static int cellCount(int span) {
+        return (span + 15) >> 4;
+    }
+
+    @Override
+    public BoundingBox box() {
+        return this.box;
+    }
+
+    @Nullable
+    @Override
+    public BlockState get(int x, int y, int z) {
+        int lx = x - this.box.minX(), ly = y - this.box.minY(), lz = z - this.box.minZ();
+        var cell = this.getCell(((ly >> 4) * this.cellsZ + (lz >> 4)) * this.cellsX + (lx >> 4));
+
+        if (cell.bits == 0) {
+            return cell.palette[0];
+        }
+
+        // same layout as SimpleBitStorage: values never span two longs
+        int index = ((ly & 15) << 8) | ((lz & 15) << 4) | (lx & 15);
+        int valuesPerLong = 64 / cell.bits;
+        long word = this.buffer.getLong(cell.dataOffset + (index / valuesPerLong) * 8);
+        int id = (int) (word >>> ((index % valuesPerLong) * cell.bits)) & ((1 << cell.bits) - 1);
+        return cell.palette[id];
+    }
+
+    private Cell getCell(int index) {
+        var cell = this.cells[index];
+
+        if (cell == null) {
+            int offset = Math.toIntExact(this.buffer.getLong(HEADER_SIZE + 8 * index));
+            int paletteSize = this.buffer.getInt(offset);
+            var palette = new BlockState[paletteSize];
+            for (int i = 0; i < paletteSize; i++) {
+                palette[i] = this.palette[this.buffer.getInt(offset + 4 + 4 * i)];
+            }
+            int bitsOffset = offset + 4 + 4 * paletteSize;
+
+            cell = new Cell(palette, this.buffer.getInt(bitsOffset), bitsOffset + 4);
+            this.cells[index] = cell;
+        }
+
+        return cell;
+    }
+
+    @Nullable
+    @Override
+    public CompoundTag getBlockEntity(int x, int y, int z) {
+        return this.blockEntities.get(BlockPos.asLong(x, y, z));
+    }
+
+    @Override
+    public List<CompoundTag> getEntities() {
+        return this.entities;
+    }
+
+    private record Cell(BlockState[] palette, int bits, int dataOffset) {
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 thedarkcolour
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ */
+
+package thedarkcolour.modkit.wand;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.network.chat.Component;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.server.level.TicketType;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+import org.jetbrains.annotations.Nullable;
+import thedarkcolour.modkit.MKConfig;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Places a clipboard at an anchor position, recording the replaced states so the paste can be undone.
+ * <p>
+ * The paste never loads chunks on the server thread. Target chunks are requested with a ticket in a
+ * spiral around the anchor, at most {@link MKConfig#PASTE_MAX_CHUNKS} at a time, and are loaded or
+ * generated by the chunk system in the background. Each chunk column is written once it is ready, one
+ * section at a time, after which its blocks are flushed, its entities are spawned and its ticket is released.
+ */
+public class PasteJob extends WandJob {
+    private static final TicketType<ChunkPos> TICKET = TicketType.create("modkit_paste", Comparator.comparingLong(ChunkPos::toLong));
+
+    private final Clipboard clipboard;
+    private final BlockPos anchor;
+    private final BoundingBox box;
+    private final BatchedBlockWriter writer;
+    private final BlockSnapshot undo;
+    private final Consumer<BlockSnapshot> undoSink;
+    private final Component doneMessage;
+
+    // chunks that have not been requested yet, in spiral order
+    private final Deque<ChunkPos> pending = new ArrayDeque<>();
+    // chunks with a ticket, in the order they were requested
+    private final List<ChunkPos> held = new ArrayList<>();
+    // clipboard entities grouped by the chunk they will be spawned in
+    private final Long2ObjectMap<List<CompoundTag>> entities = new Long2ObjectLinkedOpenHashMap<>();
+    @Nullable
+    private ChunkPos currentChunk;
+    @Nullable
+    private SectionCursor cursor;
+
+    public PasteJob(ServerLevel level, UUID owner, Clipboard clipboard, BlockPos anchor, WriteMode mode, Consumer<BlockSnapshot> undoSink, Component doneMessage) {
+        super(level, owner, "Pasting", clipboard.volume());
+        this.box = clipboard.box().moved(anchor.getX(), anchor.getY(), anchor.getZ());
+        this.clipboard = clipboard;
+        this.anchor = anchor;
+        this.undo = new BlockSnapshot(this.box);
+        this.writer = new BatchedBlockWriter(level, this.undo, mode);
+        this.undoSink = undoSink;
+        this.doneMessage = doneMessage;
+
+        List<ChunkPos> chunks = new ArrayList<>();
+        for (int z = SectionPos.blockToSectionCoord(this.box.minZ()); z <= SectionPos.blockToSectionCoord(this.box.maxZ()); z++) {
+            for (int x = SectionPos.blockToSectionCoord(this.box.minX()); x <= SectionPos.blockToSectionCoord(this.box.maxX()); x++) {
+                chunks.add(new ChunkPos(x, z));
+            }
+        }
+        // rings around the anchor's chunk, each ring sorted by angle
+        var center = new ChunkPos(anchor);
+        chunks.sort(Comparator.<ChunkPos>comparingInt(pos -> Math.max(Math.abs(pos.x - center.x), Math.abs(pos.z - center.z)))
+                .thenComparingDouble(pos -> Math.atan2(pos.z - center.z, pos.x - center.x)));
+        this.pending.addAll(chunks);
+
+        for (var tag : clipboard.getEntities()) {
+            this.entities.computeIfAbsent(EntityTags.getChunkPos(tag, anchor).toLong(), key -> new ArrayList<>()).add(tag);
+        }
+    }
+
+    @Override
+    protected int run(int maxBlocks) {
+        int count = 0;
+
+        while (count < maxBlocks) {
+            if (this.cursor == null && !this.nextChunk()) {
+                break;
+            }
+
+            if (!this.cursor.next()) {
+                this.finishChunk();
+                continue;
+            }
+
+            var pos = this.cursor.pos();
+            int x = pos.getX() - this.anchor.getX(), y = pos.getY() - this.anchor.getY(), z = pos.getZ() - this.anchor.getZ();
+            var state = this.clipboard.get(x, y, z);
+            if (state != null) {
+                this.writer.setBlockState(pos, state, this.clipboard.getBlockEntity(x, y, z));
+            }
+            count++;
+        }
+
+        this.processed += count;
+        return count;
+    }
+
+    // requests more chunks up to the cap and starts writing the first one that is loaded
+    private boolean nextChunk() {
+        var chunkSource = this.level.getChunkSource();
+        int maxChunks = MKConfig.PASTE_MAX_CHUNKS.get();
+
+        while (this.held.size() < maxChunks && !this.pending.isEmpty()) {
+            var pos = this.pending.poll();
+            chunkSource.addRegionTicket(TICKET, pos, 0, pos);
+            this.held.add(pos);
+        }
+
+        if (this.held.isEmpty()) {
+            this.done = true;
+            return false;
+        }
+
+        for (var pos : this.held) {
+            if (chunkSource.getChunkNow(pos.x, pos.z) != null) {
+                this.currentChunk = pos;
+                this.cursor = new SectionCursor(new BoundingBox(
+                        Math.max(this.box.minX(), pos.getMinBlockX()), this.box.minY(), Math.max(this.box.minZ(), pos.getMinBlockZ()),
+                        Math.min(this.box.maxX(), pos.getMaxBlockX()), this.box.maxY(), Math.min(this.box.maxZ(), pos.getMaxBlockZ())
+                ));
+                return true;
+            }
+        }
+
+        // nothing is loaded yet, wait for the chunk system
+        return false;
+    }
+
+    private void finishChunk() {
+        var pos = this.currentChunk;
+        // send the blocks while the chunk is still guaranteed to be loaded
+        this.writer.flush();
+
+        var entities = this.entities.remove(pos.toLong());
+        if (entities != null) {
+            for (var tag : entities) {
+                EntityTags.spawn(this.level, tag, this.anchor, this.clipboard.getTransform());
+            }
+        }
+
+        this.level.getChunkSource().removeRegionTicket(TICKET, pos, 0, pos);
+        this.held.remove(pos);
+        this.currentChunk = null;
+        this.cursor = null;
+    }
+
+    @Override
+    protected void endTick() {
+        this.writer.flush();
+    }
+
+    @Override
+    protected void finish(boolean cancelled) {
+        this.writer.finish(this.box);
+
+        var chunkSource = this.level.getChunkSource();
+        for (var pos : this.held) {
+            chunkSource.removeRegionTicket(TICKET, pos, 0, pos);
+        }
+        this.held.clear();
+
+        if (!cancelled) {
+            // entities that were saved slightly outside the box
+            for (var entities : this.entities.values()) {
+                for (var tag : entities) {
+                    EntityTags.spawn(this.level, tag, this.anchor, this.clipboard.getTransform());
+                }
+            }
+        }
+
+        // nothing to undo if every position already had the right state
+        if (!this.undo.isEmpty()) {
+            this.undoSink.accept(this.undo);
+        }
+
+        this.sendMessage(cancelled ? Component.literal("Cancelled paste after " + this.processed + " blocks (hold use to undo)") : this.doneMessage);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 thedarkcolour
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ */
+
+package thedarkcolour.modkit.wand;
+
+import net.minecraft.network.chat.Component;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.entity.Entity;
+import net.minecraft.world.level.entity.EntityTypeTest;
+import net.minecraft.world.phys.AABB;
+import thedarkcolour.modkit.MKConfig;
+import thedarkcolour.modkit.item.KillWand;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Predicate;
+
+/**
+ * Kills every matching entity in an area, at most {@link MKConfig#PURGE_ENTITIES_PER_TICK} per tick so that
+ * thousands of deaths and their packets are spread over several ticks.
+ * <p>
+ * Entities are found when the job is created with the level's entity lookup, which only visits the entity
+ * sections overlapping the area instead of every loaded entity. Entities removed in the meantime are skipped.
+ */
+public class PurgeJob extends WandJob {
+    private final List<? extends Entity> entities;
+    private final boolean discard;
+    private int index;
+    private int killed;
+    // entities handled this tick
+    private int tickCount;
+
+    /**
+     * @param discard Whether entities are discarded instead of killed, see {@link KillWand#kill(Entity, boolean)}
+     */
+    public PurgeJob(ServerLevel level, UUID owner, AABB area, Predicate<Entity> filter, boolean discard) {
+        this(level, owner, level.getEntities(EntityTypeTest.forClass(Entity.class), area, filter), discard);
+    }
+
+    private PurgeJob(ServerLevel level, UUID owner, List<? extends Entity> entities, boolean discard) {
+        super(level, owner, "Purging", entities.size());
+        this.entities = entities;
+        this.discard = discard;
+    }
+
+    @Override
+    protected int run(int maxBlocks) {
+        var max = Math.min(maxBlocks, MKConfig.PURGE_ENTITIES_PER_TICK.get() - this.tickCount);
+        var count = 0;
+
+        while (count < max && this.index < this.entities.size()) {
+            var entity = this.entities.get(this.index++);
+            count++;
+
+            if (KillWand.kill(entity, this.discard)) {
+                this.killed++;
+            }
+        }
+
+        this.tickCount += count;
+        this.done = this.index == this.entities.size();
+        this.processed = this.index;
+        // returns 0 once this tick's share is used up, so the scheduler waits until the next tick
+        return count;
+    }
+
+    @Override
+    protected void endTick() {
+        this.tickCount = 0;
+    }
+
+    @Override
+    protected void finish(boolean cancelled) {
+        this.sendMessage(Component.literal((cancelled ? "Cancelled purge after killing " : "Purged ") + this.killed + " entities"));
+    }
+}
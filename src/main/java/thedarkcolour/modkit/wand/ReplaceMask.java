@@ -0,0 +1,97 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 thedarkcolour
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ */
+
+package thedarkcolour.modkit.wand;
+
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import com.mojang.brigadier.exceptions.DynamicCommandExceptionType;
+import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.network.chat.Component;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.state.BlockState;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Restricts which blocks a fill replaces, written like {@code dirt,grass_block}. A block without
+ * properties matches all of its states, a block with properties only matches that exact state,
+ * and a leading {@code !} inverts the mask, so {@code !air} replaces everything except plain air
+ * (cave air and void air are separate blocks and still match).
+ * <p>
+ * Masks are compiled into a table indexed by {@link Block#getId(BlockState)}. Block states carry no id of
+ * their own, so that id comes from an identity hash lookup in the state registry; the only hash-free index
+ * would be the palette id inside each chunk section, which is private to the section's container. The table
+ * therefore costs one identity lookup per distinct state instead of a string or property match, and the result
+ * for the last tested state is remembered, so runs of the same state cost a single comparison. Because of
+ * that, a mask must only be used by one job at a time.
+ */
+public final class ReplaceMask {
+    private static final DynamicCommandExceptionType UNKNOWN_BLOCK = new DynamicCommandExceptionType(name -> Component.literal("Unknown block " + name));
+
+    // indexed by Block.getId(state)
+    private final boolean[] matches;
+    @Nullable
+    private BlockState lastState;
+    private boolean lastResult;
+
+    private ReplaceMask(boolean[] matches) {
+        this.matches = matches;
+    }
+
+    public static ReplaceMask parse(String mask) throws CommandSyntaxException {
+        mask = mask.trim();
+        boolean invert = mask.startsWith("!");
+        if (invert) {
+            mask = mask.substring(1);
+        }
+
+        var matches = new boolean[Block.BLOCK_STATE_REGISTRY.size()];
+
+        for (var entry : FillPattern.splitEntries(mask)) {
+            entry = entry.trim();
+
+            if (entry.indexOf('[') == -1) {
+                var id = ResourceLocation.tryParse(entry);
+                var block = id == null ? null : BuiltInRegistries.BLOCK.getOptional(id).orElse(null);
+                if (block == null) {
+                    throw UNKNOWN_BLOCK.create(entry);
+                }
+                for (var state : block.getStateDefinition().getPossibleStates()) {
+                    matches[Block.getId(state)] = true;
+                }
+            } else {
+                matches[Block.getId(FillPattern.parseState(entry))] = true;
+            }
+        }
+
+        if (invert) {
+            for (int i = 0; i < matches.length; i++) {
+                matches[i] = !matches[i];
+            }
+        }
+
+        return new ReplaceMask(matches);
+    }
+
+    public boolean test(BlockState state) {
+        if (state != this.lastState) {
+            this.lastState = state;
+            int id = Block.getId(state);
+            this.lastResult = id >= 0 && id < this.matches.length && this.matches[id];
+        }
+        return this.lastResult;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 thedarkcolour
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ */
+
+package thedarkcolour.modkit.wand;
+
+import net.minecraft.network.chat.Component;
+import net.minecraft.server.level.ServerLevel;
+
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Puts back the blocks and block entities recorded in a snapshot, used to undo and redo wand operations.
+ */
+public class RestoreJob extends WandJob {
+    private final BatchedBlockWriter writer;
+    private final BlockSnapshot snapshot;
+    private final SectionCursor cursor;
+    private final BlockSnapshot inverse;
+    private final Consumer<BlockSnapshot> inverseSink;
+    private final Component doneMessage;
+
+    /**
+     * @param inverseSink Receives a snapshot of the states that were overwritten, so this job can itself be undone
+     */
+    public RestoreJob(ServerLevel level, UUID owner, BlockSnapshot snapshot, String name, WriteMode mode, Consumer<BlockSnapshot> inverseSink, Component doneMessage) {
+        super(level, owner, name, snapshot.volume());
+        this.snapshot = snapshot;
+        this.cursor = new SectionCursor(snapshot.box());
+        this.inverse = new BlockSnapshot(snapshot.box());
+        this.writer = new BatchedBlockWriter(level, this.inverse, mode);
+        this.inverseSink = inverseSink;
+        this.doneMessage = doneMessage;
+    }
+
+    @Override
+    protected int run(int maxBlocks) {
+        int count = 0;
+
+        while (count < maxBlocks) {
+            if (!this.cursor.next()) {
+                this.done = true;
+                break;
+            }
+
+            var pos = this.cursor.pos();
+            var state = this.snapshot.get(pos);
+            if (state != null) {
+                this.writer.setBlockState(pos, state, this.snapshot.getBlockEntity(pos));
+            }
+            count++;
+        }
+
+        this.processed += count;
+        return count;
+    }
+
+    @Override
+    protected void endTick() {
+        this.writer.flush();
+    }
+
+    @Override
+    protected void finish(boolean cancelled) {
+        this.writer.finish(this.snapshot.box());
+
+        // nothing to undo if every position already had the right state
+        if (!this.inverse.isEmpty()) {
+            this.inverseSink.accept(this.inverse);
+        }
+
+        this.sendMessage(cancelled ? Component.literal("Cancelled after " + this.processed + " blocks") : this.doneMessage);
+    }
+}
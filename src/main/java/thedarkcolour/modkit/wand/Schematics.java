@@ -0,0 +1,114 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 thedarkcolour
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ */
+
+package thedarkcolour.modkit.wand;
+
+import net.minecraft.Util;
+import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.nbt.NbtIo;
+import net.minecraftforge.fml.loading.FMLPaths;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Saves and loads clipboards in the "schematics" folder of the game directory. Schematics are saved in
+ * the memory-mapped {@link MappedSchematic} format, or exported as Sponge schematics for other tools.
+ * All file access happens on the IO pool.
+ */
+public final class Schematics {
+    // no dots or slashes, so names can't escape the schematics folder
+    private static final Pattern NAME = Pattern.compile("[A-Za-z0-9_-]+");
+
+    private Schematics() {
+    }
+
+    public static Path getDirectory() {
+        return FMLPaths.GAMEDIR.get().resolve("schematics");
+    }
+
+    public static boolean isValidName(String name) {
+        return NAME.matcher(name).matches();
+    }
+
+    /**
+     * @param sponge Whether to export a Sponge schematic instead of a ModKit schematic
+     * @return The file that was written
+     */
+    public static CompletableFuture<Path> save(Clipboard clipboard, String name, boolean sponge) {
+        return CompletableFuture.supplyAsync(() -> {
+            var file = getDirectory().resolve(name + (sponge ? SpongeSchematic.EXTENSION : MappedSchematic.EXTENSION));
+
+            try {
+                Files.createDirectories(file.getParent());
+                if (sponge) {
+                    NbtIo.writeCompressed(SpongeSchematic.write(clipboard), file.toFile());
+                } else {
+                    MappedSchematic.write(file, clipboard);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            return file;
+        }, Util.ioPool());
+    }
+
+    /**
+     * Loads a ModKit schematic, or a Sponge schematic if there is no ModKit schematic with this name.
+     */
+    public static CompletableFuture<Clipboard> load(String name) {
+        return CompletableFuture.supplyAsync(() -> {
+            var directory = getDirectory();
+            var mapped = directory.resolve(name + MappedSchematic.EXTENSION);
+            var sponge = directory.resolve(name + SpongeSchematic.EXTENSION);
+
+            try {
+                if (Files.exists(mapped)) {
+                    return MappedSchematic.open(mapped, BuiltInRegistries.BLOCK.asLookup());
+                } else if (Files.exists(sponge)) {
+                    return SpongeSchematic.read(NbtIo.readCompressed(sponge.toFile()));
+                } else {
+                    throw new IOException("No schematic named " + name);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, Util.ioPool());
+    }
+
+    /**
+     * @return Names of all schematics that can be loaded, without extensions
+     */
+    public static List<String> list() {
+        try (Stream<Path> files = Files.list(getDirectory())) {
+            return files.map(file -> file.getFileName().toString())
+                    .filter(file -> file.endsWith(MappedSchematic.EXTENSION) || file.endsWith(SpongeSchematic.EXTENSION))
+                    .map(file -> file.substring(0, file.lastIndexOf('.')))
+                    .distinct()
+                    .sorted()
+                    .toList();
+        } catch (IOException e) {
+            return List.of();
+        }
+    }
+}
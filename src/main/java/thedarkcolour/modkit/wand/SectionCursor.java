@@ -0,0 +1,120 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 thedarkcolour
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ */
+
+package thedarkcolour.modkit.wand;
+
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+
+/**
+ * Walks every position of a box one chunk section at a time, so that consecutive positions
+ * share the same chunk and section. Chunks are visited column by column (all sections of a
+ * chunk before moving on to the next chunk), and positions within a section are visited in
+ * x-z-y order, which matches the layout of a vanilla chunk section.
+ */
+public class SectionCursor {
+    private final BoundingBox box;
+    private final BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+    private final int minSectionX, minSectionY, maxSectionX, maxSectionY, maxSectionZ;
+
+    // current section
+    private int sectionX, sectionY, sectionZ;
+    // bounds of the box within the current section
+    private int x0, y0, z0, x1, y1, z1;
+    private int x, y, z;
+    private boolean started;
+
+    public SectionCursor(BoundingBox box) {
+        this.box = box;
+        this.minSectionX = SectionPos.blockToSectionCoord(box.minX());
+        this.minSectionY = SectionPos.blockToSectionCoord(box.minY());
+        this.maxSectionX = SectionPos.blockToSectionCoord(box.maxX());
+        this.maxSectionY = SectionPos.blockToSectionCoord(box.maxY());
+        this.maxSectionZ = SectionPos.blockToSectionCoord(box.maxZ());
+
+        this.sectionX = this.minSectionX;
+        this.sectionY = this.minSectionY;
+        this.sectionZ = SectionPos.blockToSectionCoord(box.minZ());
+    }
+
+    /**
+     * Advances to the next position in the box.
+     *
+     * @return false if every position has been visited
+     */
+    public boolean next() {
+        if (!this.started) {
+            this.started = true;
+            this.enterSection();
+        } else if (this.x < this.x1) {
+            this.x++;
+        } else if (this.z < this.z1) {
+            this.x = this.x0;
+            this.z++;
+        } else if (this.y < this.y1) {
+            this.x = this.x0;
+            this.z = this.z0;
+            this.y++;
+        } else if (!this.nextSection()) {
+            return false;
+        }
+
+        this.pos.set(this.x, this.y, this.z);
+        return true;
+    }
+
+    private boolean nextSection() {
+        if (++this.sectionY > this.maxSectionY) {
+            this.sectionY = this.minSectionY;
+
+            if (++this.sectionX > this.maxSectionX) {
+                this.sectionX = this.minSectionX;
+
+                if (++this.sectionZ > this.maxSectionZ) {
+                    return false;
+                }
+            }
+        }
+
+        this.enterSection();
+        return true;
+    }
+
+    private void enterSection() {
+        this.x0 = Math.max(this.box.minX(), SectionPos.sectionToBlockCoord(this.sectionX));
+        this.y0 = Math.max(this.box.minY(), SectionPos.sectionToBlockCoord(this.sectionY));
+        this.z0 = Math.max(this.box.minZ(), SectionPos.sectionToBlockCoord(this.sectionZ));
+        this.x1 = Math.min(this.box.maxX(), SectionPos.sectionToBlockCoord(this.sectionX, 15));
+        this.y1 = Math.min(this.box.maxY(), SectionPos.sectionToBlockCoord(this.sectionY, 15));
+        this.z1 = Math.min(this.box.maxZ(), SectionPos.sectionToBlockCoord(this.sectionZ, 15));
+        this.x = this.x0;
+        this.y = this.y0;
+        this.z = this.z0;
+    }
+
+    /**
+     * @return The current position. This is a mutable position that changes with every call to {@link #next()},
+     * use {@link BlockPos#immutable()} if it needs to be stored.
+     */
+    public BlockPos pos() {
+        return this.pos;
+    }
+
+    public BoundingBox box() {
+        return this.box;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 thedarkcolour
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ */
+
+package thedarkcolour.modkit.wand;
+
+import net.minecraft.Util;
+import net.minecraft.core.SectionPos;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.PalettedContainer;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A job which reads the blocks of a box without changing them, shared by {@link CopyJob} and {@link AnalyzeJob}.
+ * <p>
+ * The server thread only copies the block storage of each chunk section the box touches, and gives
+ * subclasses a chance to read anything else they need from each chunk. Every copied section is then
+ * read on the background executor, one task per section, and the results are merged off-thread.
+ * The job checks every tick whether the merged result is ready.
+ *
+ * @param <S> The result of reading one section
+ * @param <R> The merged result of every section
+ */
+public abstract class SectionSnapshotJob<S, R> extends WandJob {
+    protected final BoundingBox box;
+
+    private final int minSectionX, minSectionY, maxSectionX, maxSectionY, maxSectionZ;
+    private int sectionX, sectionY, sectionZ;
+
+    private final List<CompletableFuture<S>> sections = new ArrayList<>();
+    // blocks read by the section tasks, for progress
+    private final AtomicLong read = new AtomicLong();
+    @Nullable
+    private CompletableFuture<R> result;
+
+    protected SectionSnapshotJob(ServerLevel level, UUID owner, String name, BoundingBox box) {
+        super(level, owner, name, (long) box.getXSpan() * box.getYSpan() * box.getZSpan());
+        this.box = box;
+
+        this.minSectionX = SectionPos.blockToSectionCoord(box.minX());
+        this.minSectionY = SectionPos.blockToSectionCoord(box.minY());
+        this.maxSectionX = SectionPos.blockToSectionCoord(box.maxX());
+        this.maxSectionY = SectionPos.blockToSectionCoord(box.maxY());
+        this.maxSectionZ = SectionPos.blockToSectionCoord(box.maxZ());
+        this.sectionX = this.minSectionX;
+        this.sectionY = this.minSectionY;
+        this.sectionZ = SectionPos.blockToSectionCoord(box.minZ());
+    }
+
+    /**
+     * Called on the server thread once for every chunk the box touches, before its sections are copied.
+     */
+    protected void captureChunk(LevelChunk chunk) {
+    }
+
+    /**
+     * Reads the part of a section inside the box. Runs on the background executor with a private copy of the section's states.
+     *
+     * @param sectionBox The part of the box inside this section
+     */
+    protected abstract S readSection(PalettedContainer<BlockState> states, BoundingBox sectionBox);
+
+    /**
+     * Merges the results of every section. Runs on the background executor, and is given no sections if the job was cancelled.
+     */
+    protected abstract R merge(List<S> sections);
+
+    @Override
+    protected int run(int maxBlocks) {
+        int count = 0;
+
+        if (this.result == null) {
+            while (count < maxBlocks) {
+                if (this.sectionZ > this.maxSectionZ) {
+                    var sections = this.sections.toArray(new CompletableFuture[0]);
+                    this.result = CompletableFuture.allOf(sections).thenApplyAsync(v -> this.mergeSections(), Util.backgroundExecutor());
+                    break;
+                }
+
+                count += this.captureSection();
+
+                if (++this.sectionY > this.maxSectionY) {
+                    this.sectionY = this.minSectionY;
+
+                    if (++this.sectionX > this.maxSectionX) {
+                        this.sectionX = this.minSectionX;
+                        this.sectionZ++;
+                    }
+                }
+            }
+        } else if (this.result.isDone()) {
+            this.done = true;
+        }
+
+        this.processed = this.read.get();
+        return count;
+    }
+
+    /**
+     * Waits for the merged result, which is ready once the job is done.
+     *
+     * @throws java.util.concurrent.CompletionException If reading a section failed
+     */
+    protected R getResult() {
+        return this.result.join();
+    }
+
+    // copies one section's block storage and hands it to a background task, returns the number of blocks it covers
+    private int captureSection() {
+        var chunk = this.level.getChunk(this.sectionX, this.sectionZ);
+        if (this.sectionY == this.minSectionY) {
+            this.captureChunk(chunk);
+        }
+
+        int index = this.level.getSectionIndexFromSectionY(this.sectionY);
+        if (index < 0 || index >= chunk.getSections().length) {
+            // outside the build height, there is nothing to read
+            return 0;
+        }
+
+        var sectionBox = new BoundingBox(
+                Math.max(this.box.minX(), SectionPos.sectionToBlockCoord(this.sectionX)),
+                Math.max(this.box.minY(), SectionPos.sectionToBlockCoord(this.sectionY)),
+                Math.max(this.box.minZ(), SectionPos.sectionToBlockCoord(this.sectionZ)),
+                Math.min(this.box.maxX(), SectionPos.sectionToBlockCoord(this.sectionX, 15)),
+                Math.min(this.box.maxY(), SectionPos.sectionToBlockCoord(this.sectionY, 15)),
+                Math.min(this.box.maxZ(), SectionPos.sectionToBlockCoord(this.sectionZ, 15))
+        );
+        var states = chunk.getSection(index).getStates().copy();
+        var volume = sectionBox.getXSpan() * sectionBox.getYSpan() * sectionBox.getZSpan();
+
+        this.sections.add(CompletableFuture.supplyAsync(() -> {
+            if (this.isCancelled()) {
+                return null;
+            }
+            var section = this.readSection(states, sectionBox);
+            this.read.addAndGet(volume);
+            return section;
+        }, Util.backgroundExecutor()));
+        return volume;
+    }
+
+    private R mergeSections() {
+        var sections = new ArrayList<S>(this.sections.size());
+
+        if (!this.isCancelled()) {
+            for (var section : this.sections) {
+                var result = section.join();
+                if (result != null) {
+                    sections.add(result);
+                }
+            }
+        }
+
+        return this.merge(sections);
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 thedarkcolour
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ */
+
+package thedarkcolour.modkit.wand;
+
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Direction;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A player's wand selection, shared by all wands and kept in their {@link WandSession} instead of item NBT.
+ * <p>
+ * The first click with a wand starts a pending selection of one block, and the next click completes it
+ * with the smallest box containing both the pending selection and the clicked block. A completed selection
+ * is remembered as the last box. The pending selection, or the last box if there is none, can be expanded,
+ * contracted and shifted with commands, which makes it pending again, so that clicking inside it uses it as is.
+ * <p>
+ * Selections are immutable, every edit returns a new selection. Sessions swap them atomically with
+ * {@link WandSession#updateSelection}, so they can be read from any thread.
+ */
+public final class Selection {
+    public static final Selection EMPTY = new Selection(null, null, null, null);
+
+    @Nullable
+    private final ResourceKey<Level> dimension;
+    // first clicked corner, used as the origin when copying
+    @Nullable
+    private final BlockPos first;
+    @Nullable
+    private final BoundingBox pending;
+    @Nullable
+    private final BoundingBox last;
+
+    private Selection(@Nullable ResourceKey<Level> dimension, @Nullable BlockPos first, @Nullable BoundingBox pending, @Nullable BoundingBox last) {
+        this.dimension = dimension;
+        this.first = first;
+        this.pending = pending;
+        this.last = last;
+    }
+
+    /**
+     * Starts a new selection, or completes the pending one if it is in the same dimension.
+     * The selection is complete if the result is not {@link #isPending() pending}.
+     */
+    public Selection click(ResourceKey<Level> dimension, BlockPos pos) {
+        if (this.pending == null || dimension != this.dimension) {
+            return new Selection(dimension, pos.immutable(), new BoundingBox(pos), this.last);
+        }
+
+        var pending = this.pending;
+        var box = new BoundingBox(
+                Math.min(pending.minX(), pos.getX()), Math.min(pending.minY(), pos.getY()), Math.min(pending.minZ(), pos.getZ()),
+                Math.max(pending.maxX(), pos.getX()), Math.max(pending.maxY(), pos.getY()), Math.max(pending.maxZ(), pos.getZ())
+        );
+        return new Selection(dimension, this.first, null, box);
+    }
+
+    @Nullable
+    public ResourceKey<Level> getDimension() {
+        return this.dimension;
+    }
+
+    /**
+     * @return The first corner clicked for the current or last selection
+     */
+    @Nullable
+    public BlockPos getFirst() {
+        return this.first;
+    }
+
+    public boolean isPending() {
+        return this.pending != null;
+    }
+
+    /**
+     * @return The box to show to the player, which is the pending selection or the last box
+     */
+    @Nullable
+    public BoundingBox getBox() {
+        return this.pending != null ? this.pending : this.last;
+    }
+
+    /**
+     * Cancels the pending selection, keeping the last box.
+     */
+    public Selection cancelPending() {
+        return this.pending == null ? this : new Selection(this.dimension, this.first, null, this.last);
+    }
+
+    /**
+     * Moves one face of the selection outwards. Does nothing if there is no selection to edit.
+     */
+    public Selection expand(Direction direction, int amount) {
+        return this.resize(direction, amount);
+    }
+
+    /**
+     * Moves one face of the selection inwards, keeping at least one block. Does nothing if there is no selection to edit.
+     */
+    public Selection contract(Direction direction, int amount) {
+        return this.resize(direction, -amount);
+    }
+
+    /**
+     * Moves the whole selection. Does nothing if there is no selection to edit.
+     */
+    public Selection shift(Direction direction, int amount) {
+        var box = this.getBox();
+        if (box == null) {
+            return this;
+        }
+
+        int dx = direction.getStepX() * amount, dy = direction.getStepY() * amount, dz = direction.getStepZ() * amount;
+        var first = this.first == null ? null : this.first.offset(dx, dy, dz);
+        return new Selection(this.dimension, first, box.moved(dx, dy, dz), this.last);
+    }
+
+    private Selection resize(Direction direction, int amount) {
+        var box = this.getBox();
+        if (box == null) {
+            return this;
+        }
+
+        int minX = box.minX(), minY = box.minY(), minZ = box.minZ(), maxX = box.maxX(), maxY = box.maxY(), maxZ = box.maxZ();
+        switch (direction) {
+            case EAST -> maxX = Math.max(minX, maxX + amount);
+            case WEST -> minX = Math.min(maxX, minX - amount);
+            case UP -> maxY = Math.max(minY, maxY + amount);
+            case DOWN -> minY = Math.min(maxY, minY - amount);
+            case SOUTH -> maxZ = Math.max(minZ, maxZ + amount);
+            case NORTH -> minZ = Math.min(maxZ, minZ - amount);
+        }
+        return new Selection(this.dimension, this.first, new BoundingBox(minX, minY, minZ, maxX, maxY, maxZ), this.last);
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 thedarkcolour
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ */
+
+package thedarkcolour.modkit.wand;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Locale;
+
+/**
+ * Shapes the fill wands can fill a box with. Round shapes are inscribed in the box, so an uneven box
+ * gives an ellipsoid or an elliptic cylinder. See {@link ShapeRasterizer} for how they are generated.
+ */
+public enum Shape {
+    CUBOID,
+    SPHERE,
+    /**
+     * The surface of a sphere, one block thick.
+     */
+    HOLLOW_SPHERE,
+    /**
+     * A vertical cylinder.
+     */
+    CYLINDER,
+    /**
+     * All six faces of the box.
+     */
+    HOLLOW_BOX,
+    /**
+     * The four vertical faces of the box, without floor or ceiling.
+     */
+    WALLS,
+    /**
+     * Not a shape of the box: replaces every block connected to the clicked block with the same state,
+     * without a selection. See {@link FloodFillJob}.
+     */
+    CONNECTED;
+
+    public String getName() {
+        return this.name().toLowerCase(Locale.ROOT);
+    }
+
+    @Nullable
+    public static Shape byName(String name) {
+        for (var shape : values()) {
+            if (shape.getName().equals(name)) {
+                return shape;
+            }
+        }
+        return null;
+    }
+}
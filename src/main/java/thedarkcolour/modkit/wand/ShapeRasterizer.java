@@ -0,0 +1,268 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 thedarkcolour
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ */
+
+package thedarkcolour.modkit.wand;
+
+import net.minecraft.core.SectionPos;
+import net.minecraft.util.Mth;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+
+/**
+ * Generates a {@link Shape} as runs of consecutive x positions, one (y, z) row at a time. Each row of a
+ * shape has at most two runs, and rows are computed directly from the shape's equation, so hollow
+ * shapes never visit their interior and the cost of a fill is proportional to the blocks it places.
+ * <p>
+ * Like {@link SectionCursor}, the box is walked one chunk section at a time, so that consecutive runs
+ * share the same chunk and section. Rows are clipped to the current section, and within a section they
+ * are visited with y in the outer loop and z in the inner loop, runs within a row from low to high x.
+ */
+public class ShapeRasterizer {
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private final Shape shape;
+    private final BoundingBox box;
+    // center and radii of round shapes, in block coordinates
+    private final double cx, cy, cz, rx, ry, rz;
+    private final int minSectionX, minSectionY, maxSectionX, maxSectionY, maxSectionZ;
+
+    // current section
+    private int sectionX, sectionY, sectionZ;
+    // bounds of the box within the current section
+    private int x0, y0, z0, x1, y1, z1;
+    private int y, z;
+    // runs of the current row as (minX, maxX) pairs
+    private final int[] runs = new int[4];
+    private int runCount, run;
+    private boolean started;
+
+    public ShapeRasterizer(Shape shape, BoundingBox box) {
+        this.shape = shape;
+        this.box = box;
+        this.cx = (box.minX() + box.maxX()) / 2.0;
+        this.cy = (box.minY() + box.maxY()) / 2.0;
+        this.cz = (box.minZ() + box.maxZ()) / 2.0;
+        // the extra half block puts the edge of the shape on the edge of the box instead of the center of the outermost blocks
+        this.rx = box.getXSpan() / 2.0;
+        this.ry = box.getYSpan() / 2.0;
+        this.rz = box.getZSpan() / 2.0;
+        this.minSectionX = SectionPos.blockToSectionCoord(box.minX());
+        this.minSectionY = SectionPos.blockToSectionCoord(box.minY());
+        this.maxSectionX = SectionPos.blockToSectionCoord(box.maxX());
+        this.maxSectionY = SectionPos.blockToSectionCoord(box.maxY());
+        this.maxSectionZ = SectionPos.blockToSectionCoord(box.maxZ());
+
+        this.sectionX = this.minSectionX;
+        this.sectionY = this.minSectionY;
+        this.sectionZ = SectionPos.blockToSectionCoord(box.minZ());
+    }
+
+    /**
+     * Advances to the next run.
+     *
+     * @return false if every run has been visited
+     */
+    public boolean next() {
+        if (!this.started) {
+            this.started = true;
+            this.enterSection();
+            this.computeRow();
+        } else {
+            this.run++;
+        }
+
+        while (this.run >= this.runCount) {
+            if (this.z < this.z1) {
+                this.z++;
+            } else if (this.y < this.y1) {
+                this.z = this.z0;
+                this.y++;
+            } else if (!this.nextSection()) {
+                return false;
+            }
+            this.computeRow();
+        }
+
+        return true;
+    }
+
+    // same order as SectionCursor
+    private boolean nextSection() {
+        if (++this.sectionY > this.maxSectionY) {
+            this.sectionY = this.minSectionY;
+
+            if (++this.sectionX > this.maxSectionX) {
+                this.sectionX = this.minSectionX;
+
+                if (++this.sectionZ > this.maxSectionZ) {
+                    return false;
+                }
+            }
+        }
+
+        this.enterSection();
+        return true;
+    }
+
+    private void enterSection() {
+        this.x0 = Math.max(this.box.minX(), SectionPos.sectionToBlockCoord(this.sectionX));
+        this.y0 = Math.max(this.box.minY(), SectionPos.sectionToBlockCoord(this.sectionY));
+        this.z0 = Math.max(this.box.minZ(), SectionPos.sectionToBlockCoord(this.sectionZ));
+        this.x1 = Math.min(this.box.maxX(), SectionPos.sectionToBlockCoord(this.sectionX, 15));
+        this.y1 = Math.min(this.box.maxY(), SectionPos.sectionToBlockCoord(this.sectionY, 15));
+        this.z1 = Math.min(this.box.maxZ(), SectionPos.sectionToBlockCoord(this.sectionZ, 15));
+        this.y = this.y0;
+        this.z = this.z0;
+    }
+
+    public int y() {
+        return this.y;
+    }
+
+    public int z() {
+        return this.z;
+    }
+
+    public int minX() {
+        return this.runs[2 * this.run];
+    }
+
+    public int maxX() {
+        return this.runs[2 * this.run + 1];
+    }
+
+    /**
+     * @return The number of positions in the shape, computed once per row of the whole box without
+     * visiting any positions or splitting rows into sections
+     */
+    public long countBlocks() {
+        var rasterizer = new ShapeRasterizer(this.shape, this.box);
+        // runs are clipped to the whole box instead of a section
+        rasterizer.x0 = this.box.minX();
+        rasterizer.x1 = this.box.maxX();
+        long count = 0;
+
+        for (rasterizer.y = this.box.minY(); rasterizer.y <= this.box.maxY(); rasterizer.y++) {
+            for (rasterizer.z = this.box.minZ(); rasterizer.z <= this.box.maxZ(); rasterizer.z++) {
+                rasterizer.computeRow();
+                for (int i = 0; i < rasterizer.runCount; i++) {
+                    count += rasterizer.runs[2 * i + 1] - rasterizer.runs[2 * i] + 1;
+                }
+            }
+        }
+
+        return count;
+    }
+
+    private void computeRow() {
+        this.run = 0;
+        this.runCount = 0;
+        int minX = this.box.minX(), maxX = this.box.maxX();
+
+        switch (this.shape) {
+            case CUBOID -> this.addRun(minX, maxX);
+            case SPHERE, CYLINDER -> {
+                long span = this.span(this.y, this.z);
+                if (span != EMPTY) {
+                    this.addRun(spanMin(span), spanMax(span));
+                }
+            }
+            case HOLLOW_SPHERE -> this.computeShellRow();
+            case HOLLOW_BOX, WALLS -> {
+                boolean face = this.z == this.box.minZ() || this.z == this.box.maxZ();
+                if (this.shape == Shape.HOLLOW_BOX) {
+                    face |= this.y == this.box.minY() || this.y == this.box.maxY();
+                }
+
+                if (face || maxX - minX < 2) {
+                    this.addRun(minX, maxX);
+                } else {
+                    this.addRun(minX, minX);
+                    this.addRun(maxX, maxX);
+                }
+            }
+        }
+    }
+
+    // a position is on the shell if it is in the sphere and one of its six neighbors is not,
+    // so the interior of a row is its own span shrunk by one and intersected with the four neighboring rows
+    private void computeShellRow() {
+        long span = this.span(this.y, this.z);
+        if (span == EMPTY) {
+            return;
+        }
+        int min = spanMin(span), max = spanMax(span);
+        int innerMin = min + 1, innerMax = max - 1;
+
+        for (long neighbor : new long[]{this.span(this.y - 1, this.z), this.span(this.y + 1, this.z), this.span(this.y, this.z - 1), this.span(this.y, this.z + 1)}) {
+            if (neighbor == EMPTY) {
+                innerMin = Integer.MAX_VALUE;
+                break;
+            }
+            innerMin = Math.max(innerMin, spanMin(neighbor));
+            innerMax = Math.min(innerMax, spanMax(neighbor));
+        }
+
+        if (innerMin > innerMax) {
+            this.addRun(min, max);
+        } else {
+            if (innerMin > min) this.addRun(min, innerMin - 1);
+            if (innerMax < max) this.addRun(innerMax + 1, max);
+        }
+    }
+
+    // the x span of a round shape in a row, packed into a long, or EMPTY
+    private long span(int y, int z) {
+        if (y < this.box.minY() || y > this.box.maxY() || z < this.box.minZ() || z > this.box.maxZ()) {
+            return EMPTY;
+        }
+
+        double dz = (z - this.cz) / this.rz;
+        double t = 1 - dz * dz;
+        if (this.shape != Shape.CYLINDER) {
+            double dy = (y - this.cy) / this.ry;
+            t -= dy * dy;
+        }
+        if (t < 0) {
+            return EMPTY;
+        }
+
+        double half = this.rx * Math.sqrt(t);
+        int min = Math.max(this.box.minX(), Mth.ceil(this.cx - half));
+        int max = Math.min(this.box.maxX(), Mth.floor(this.cx + half));
+        return min > max ? EMPTY : ((long) min << 32) | (max & 0xFFFFFFFFL);
+    }
+
+    private static int spanMin(long span) {
+        return (int) (span >> 32);
+    }
+
+    private static int spanMax(long span) {
+        return (int) span;
+    }
+
+    // clips the run to the current section
+    private void addRun(int minX, int maxX) {
+        minX = Math.max(minX, this.x0);
+        maxX = Math.min(maxX, this.x1);
+        if (minX > maxX) {
+            return;
+        }
+
+        this.runs[2 * this.runCount] = minX;
+        this.runs[2 * this.runCount + 1] = maxX;
+        this.runCount++;
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 thedarkcolour
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ */
+
+package thedarkcolour.modkit.wand;
+
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import it.unimi.dsi.fastutil.bytes.ByteArrayList;
+import it.unimi.dsi.fastutil.objects.Object2IntLinkedOpenHashMap;
+import net.minecraft.SharedConstants;
+import net.minecraft.commands.arguments.blocks.BlockStateParser;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.HolderLookup;
+import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.DoubleTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.Tag;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.block.EntityBlock;
+import net.minecraft.world.level.block.entity.BlockEntityType;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+import thedarkcolour.modkit.ModKit;
+
+import java.util.Arrays;
+
+/**
+ * Converts clipboards to and from the Sponge schematic format, the ".schem" files used by WorldEdit and
+ * most other editors. Versions 2 and 3 are read, and version 2 is written. Positions that were not captured
+ * are written as structure voids, and structure voids are read back as not captured. Block states are not
+ * run through data fixers, so schematics from other Minecraft versions may lose blocks that were renamed.
+ */
+public final class SpongeSchematic {
+    public static final String EXTENSION = ".schem";
+
+    private SpongeSchematic() {
+    }
+
+    /**
+     * @return The root tag of a schematic, to be written with {@link net.minecraft.nbt.NbtIo#writeCompressed}
+     */
+    public static CompoundTag write(Clipboard clipboard) {
+        var box = clipboard.box();
+        int width = box.getXSpan(), height = box.getYSpan(), length = box.getZSpan();
+        if (width > 0xFFFF || height > 0xFFFF || length > 0xFFFF) {
+            throw new IllegalArgumentException("Clipboard is too large for a Sponge schematic: " + box);
+        }
+
+        var palette = new Object2IntLinkedOpenHashMap<String>();
+        palette.defaultReturnValue(-1);
+        var data = new ByteArrayList();
+        var blockEntities = new ListTag();
+
+        for (int y = box.minY(); y <= box.maxY(); y++) {
+            for (int z = box.minZ(); z <= box.maxZ(); z++) {
+                for (int x = box.minX(); x <= box.maxX(); x++) {
+                    var state = clipboard.get(x, y, z);
+                    var name = BlockStateParser.serialize(state == null ? Blocks.STRUCTURE_VOID.defaultBlockState() : state);
+                    int id = palette.getInt(name);
+                    if (id == -1) {
+                        id = palette.size();
+                        palette.put(name, id);
+                    }
+
+                    // varint
+                    while ((id & ~0x7F) != 0) {
+                        data.add((byte) (id & 0x7F | 0x80));
+                        id >>>= 7;
+                    }
+                    data.add((byte) id);
+
+                    var blockEntity = clipboard.getBlockEntity(x, y, z);
+                    if (blockEntity != null && state != null && state.getBlock() instanceof EntityBlock entityBlock) {
+                        var instance = entityBlock.newBlockEntity(BlockPos.ZERO, state);
+                        if (instance != null) {
+                            var tag = blockEntity.copy();
+                            tag.putIntArray("Pos", new int[]{x - box.minX(), y - box.minY(), z - box.minZ()});
+                            tag.putString("Id", BlockEntityType.getKey(instance.getType()).toString());
+                            blockEntities.add(tag);
+                        }
+                    }
+                }
+            }
+        }
+
+        var paletteTag = new CompoundTag();
+        for (var entry : palette.object2IntEntrySet()) {
+            paletteTag.putInt(entry.getKey(), entry.getIntValue());
+        }
+
+        var entities = new ListTag();
+        for (var entity : clipboard.getEntities()) {
+            var tag = entity.copy();
+            var pos = tag.getList("Pos", Tag.TAG_DOUBLE);
+            tag.put("Pos", offset(pos, -box.minX(), -box.minY(), -box.minZ()));
+            tag.putString("Id", tag.getString("id"));
+            tag.remove("id");
+            entities.add(tag);
+        }
+
+        // WorldEdit keeps the position of the copy origin in its own metadata
+        var metadata = new CompoundTag();
+        metadata.putInt("WEOffsetX", box.minX());
+        metadata.putInt("WEOffsetY", box.minY());
+        metadata.putInt("WEOffsetZ", box.minZ());
+
+        var tag = new CompoundTag();
+        tag.putInt("Version", 2);
+        tag.putInt("DataVersion", SharedConstants.getCurrentVersion().getDataVersion().getVersion());
+        tag.putShort("Width", (short) width);
+        tag.putShort("Height", (short) height);
+        tag.putShort("Length", (short) length);
+        tag.putIntArray("Offset", new int[]{box.minX(), box.minY(), box.minZ()});
+        tag.put("Metadata", metadata);
+        tag.putInt("PaletteMax", palette.size());
+        tag.put("Palette", paletteTag);
+        tag.putByteArray("BlockData", data.toByteArray());
+        tag.put("BlockEntities", blockEntities);
+        tag.put("Entities", entities);
+        return tag;
+    }
+
+    /**
+     * Reads a version 2 or version 3 schematic into a snapshot. Unknown blocks are skipped with a warning.
+     *
+     * @throws IllegalArgumentException If the schematic has another version or its block data is malformed
+     */
+    public static BlockSnapshot read(CompoundTag root) {
+        // version 3 nests everything in a "Schematic" tag, and moves the palette, block data and block entities into "Blocks"
+        var tag = root.contains("Schematic", Tag.TAG_COMPOUND) ? root.getCompound("Schematic") : root;
+        int version = tag.getInt("Version");
+        CompoundTag blocksTag;
+        String dataKey;
+        if (version == 2) {
+            blocksTag = tag;
+            dataKey = "BlockData";
+        } else if (version == 3) {
+            blocksTag = tag.getCompound("Blocks");
+            dataKey = "Data";
+        } else {
+            throw new IllegalArgumentException("Unsupported Sponge schematic version " + version + ", only versions 2 and 3 can be loaded");
+        }
+
+        int width = tag.getShort("Width") & 0xFFFF, height = tag.getShort("Height") & 0xFFFF, length = tag.getShort("Length") & 0xFFFF;
+        var metadata = tag.getCompound("Metadata");
+        int minX = metadata.getInt("WEOffsetX"), minY = metadata.getInt("WEOffsetY"), minZ = metadata.getInt("WEOffsetZ");
+        var box = new BoundingBox(minX, minY, minZ, minX + width - 1, minY + height - 1, minZ + length - 1);
+        if (BlockSnapshot.isTooLarge(box)) {
+            throw new IllegalArgumentException("Schematic is too large to load: " + width + "x" + height + "x" + length);
+        }
+        var snapshot = new BlockSnapshot(box);
+
+        HolderLookup<Block> blocks = BuiltInRegistries.BLOCK.asLookup();
+        var paletteTag = blocksTag.getCompound("Palette");
+        var palette = new BlockState[paletteTag.size()];
+        for (var name : paletteTag.getAllKeys()) {
+            int id = paletteTag.getInt(name);
+            if (id < 0 || id >= palette.length) {
+                throw new IllegalArgumentException("Palette id " + id + " of '" + name + "' is outside the palette of " + palette.length + " states");
+            }
+            try {
+                var state = BlockStateParser.parseForBlock(blocks, name, false).blockState();
+                palette[id] = state.is(Blocks.STRUCTURE_VOID) ? null : state;
+            } catch (CommandSyntaxException e) {
+                ModKit.LOGGER.warn("Skipping unknown block state '{}' in schematic", name);
+            }
+        }
+
+        var data = blocksTag.getByteArray(dataKey);
+        int i = 0;
+        for (int y = box.minY(); y <= box.maxY(); y++) {
+            for (int z = box.minZ(); z <= box.maxZ(); z++) {
+                for (int x = box.minX(); x <= box.maxX(); x++) {
+                    int id = 0, shift = 0;
+                    byte b;
+                    do {
+                        if (i >= data.length) {
+                            throw new IllegalArgumentException("Block data ends after " + data.length + " bytes, before every block of the " + width + "x" + height + "x" + length + " box was read");
+                        }
+                        // an int takes at most five bytes
+                        if (shift > 28) {
+                            throw new IllegalArgumentException("Malformed varint in block data at byte " + i);
+                        }
+                        b = data[i++];
+                        id |= (b & 0x7F) << shift;
+                        shift += 7;
+                    } while ((b & 0x80) != 0);
+
+                    if (id < 0 || id >= palette.length) {
+                        throw new IllegalArgumentException("Palette id " + id + " in block data at byte " + (i - 1) + " is outside the palette of " + palette.length + " states");
+                    }
+                    var state = palette[id];
+                    if (state != null) {
+                        snapshot.set(x, y, z, state);
+                    }
+                }
+            }
+        }
+
+        var blockEntities = blocksTag.getList("BlockEntities", Tag.TAG_COMPOUND);
+        for (int j = 0; j < blockEntities.size(); j++) {
+            var entry = blockEntities.getCompound(j);
+            var pos = entry.getIntArray("Pos");
+            if (pos.length != 3 || !box.isInside(minX + pos[0], minY + pos[1], minZ + pos[2])) {
+                throw new IllegalArgumentException("Block entity position " + Arrays.toString(pos) + " is outside the schematic");
+            }
+            // version 3 keeps the block entity data in its own tag
+            CompoundTag blockEntity;
+            if (version == 3) {
+                blockEntity = entry.getCompound("Data").copy();
+            } else {
+                blockEntity = entry.copy();
+                blockEntity.remove("Pos");
+                blockEntity.remove("Id");
+            }
+            snapshot.setBlockEntity(minX + pos[0], minY + pos[1], minZ + pos[2], blockEntity);
+        }
+
+        var entities = tag.getList("Entities", Tag.TAG_COMPOUND);
+        for (int j = 0; j < entities.size(); j++) {
+            var entry = entities.getCompound(j);
+            var entity = version == 3 ? entry.getCompound("Data").copy() : entry.copy();
+            entity.put("Pos", offset(entry.getList("Pos", Tag.TAG_DOUBLE), minX, minY, minZ));
+            entity.putString("id", entry.getString("Id"));
+            entity.remove("Id");
+            entity.remove("UUID");
+            snapshot.addEntity(entity);
+        }
+
+        return snapshot;
+    }
+
+    private static ListTag offset(ListTag pos, int dx, int dy, int dz) {
+        var moved = new ListTag();
+        moved.add(DoubleTag.valueOf(pos.getDouble(0) + dx));
+        moved.add(DoubleTag.valueOf(pos.getDouble(1) + dy));
+        moved.add(DoubleTag.valueOf(pos.getDouble(2) + dz));
+        return moved;
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 thedarkcolour
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ */
+
+package thedarkcolour.modkit.wand;
+
+import net.minecraft.ChatFormatting;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.network.chat.Component;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.entity.Entity;
+import net.minecraft.world.entity.player.Player;
+import net.minecraft.world.level.block.entity.TickingBlockEntity;
+import net.minecraft.world.level.entity.EntityTickList;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+import net.minecraftforge.event.TickEvent;
+import net.minecraftforge.event.entity.player.PlayerEvent;
+import net.minecraftforge.event.server.ServerStoppingEvent;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Measures how long the block entities and entities inside a box take to tick over a number of ticks,
+ * then prints the cost per type and per position to the player's chat.
+ * <p>
+ * Profiles only observe the level, so they run alongside the {@link JobScheduler} instead of in the player's
+ * job queue, and each player can run one at a time. Block entity tickers inside the box are replaced by timing
+ * wrappers in the level's ticker list, which is checked again at the start of every tick so that block entities
+ * placed during the profile are included. The level's entity tick list is replaced by one which times each
+ * entity in a profiled box, including the passengers it ticks. Both are made accessible by the mod's access
+ * transformer, and are put back when the profile ends, the player logs out or the server stops.
+ * Nothing about the entities themselves is changed, so nothing is saved with them.
+ */
+public final class TickProfiler {
+    // running profiles, only used on the server thread
+    private static final List<TickProfiler> ACTIVE = new ArrayList<>();
+    private static final int MAX_ROWS = 10;
+    private static final int BAR_LENGTH = 20;
+    // ticks between action bar progress updates
+    private static final int PROGRESS_INTERVAL = 20;
+
+    private final ServerLevel level;
+    private final UUID owner;
+    private final BoundingBox box;
+    private final int duration;
+    private int ticks;
+
+    private final List<ProfiledTicker> blockEntities = new ArrayList<>();
+    private final Map<UUID, ProfiledEntity> entities = new HashMap<>();
+
+    private TickProfiler(ServerLevel level, UUID owner, BoundingBox box, int duration) {
+        this.level = level;
+        this.owner = owner;
+        this.box = box;
+        this.duration = duration;
+    }
+
+    /**
+     * Starts profiling a box for the given number of ticks.
+     *
+     * @return false if the player is already running a profile
+     */
+    public static boolean start(ServerLevel level, UUID owner, BoundingBox box, int duration) {
+        for (var profiler : ACTIVE) {
+            if (profiler.owner.equals(owner)) {
+                return false;
+            }
+        }
+
+        var profiler = new TickProfiler(level, owner, box, duration);
+        profiler.wrapTickers();
+        if (!(level.entityTickList instanceof ProfiledEntityTickList)) {
+            level.entityTickList = new ProfiledEntityTickList(level.entityTickList);
+        }
+        ACTIVE.add(profiler);
+        return true;
+    }
+
+    /**
+     * Stops the player's profile without reporting it.
+     *
+     * @return false if the player was not running a profile
+     */
+    public static boolean stop(UUID owner) {
+        for (var profiler : ACTIVE) {
+            if (profiler.owner.equals(owner)) {
+                ACTIVE.remove(profiler);
+                profiler.end();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // wraps every ticker in the box that is not wrapped yet
+    private void wrapTickers() {
+        var tickers = this.level.blockEntityTickers;
+        for (int i = 0; i < tickers.size(); i++) {
+            var ticker = tickers.get(i);
+
+            if (!(ticker instanceof ProfiledTicker) && !ticker.isRemoved() && this.box.isInside(ticker.getPos())) {
+                var profiled = new ProfiledTicker(this, ticker);
+                tickers.set(i, profiled);
+                this.blockEntities.add(profiled);
+            }
+        }
+    }
+
+    // must be called after this profiler was removed from ACTIVE
+    private void end() {
+        var tickers = this.level.blockEntityTickers;
+        for (int i = 0; i < tickers.size(); i++) {
+            if (tickers.get(i) instanceof ProfiledTicker profiled && profiled.profiler == this) {
+                tickers.set(i, profiled.delegate);
+            }
+        }
+
+        for (var profiler : ACTIVE) {
+            if (profiler.level == this.level) {
+                return;
+            }
+        }
+        if (this.level.entityTickList instanceof ProfiledEntityTickList profiled) {
+            this.level.entityTickList = profiled.delegate;
+        }
+    }
+
+    @Nullable
+    private static TickProfiler find(Entity entity) {
+        if (entity instanceof Player) return null;
+
+        var pos = entity.blockPosition();
+        for (var profiler : ACTIVE) {
+            if (profiler.level == entity.level() && profiler.box.isInside(pos)) {
+                return profiler;
+            }
+        }
+        return null;
+    }
+
+    public static void onLevelTick(TickEvent.LevelTickEvent event) {
+        if (ACTIVE.isEmpty()) return;
+
+        if (event.phase == TickEvent.Phase.START) {
+            for (var profiler : ACTIVE) {
+                if (profiler.level == event.level) {
+                    profiler.wrapTickers();
+                }
+            }
+            return;
+        }
+
+        for (var profiler : List.copyOf(ACTIVE)) {
+            if (profiler.level != event.level) continue;
+
+            if (++profiler.ticks >= profiler.duration) {
+                ACTIVE.remove(profiler);
+                profiler.end();
+                profiler.report();
+            } else if (profiler.ticks % PROGRESS_INTERVAL == 0) {
+                var player = profiler.getOwner();
+                if (player != null) {
+                    player.displayClientMessage(Component.literal(String.format("Profiling... %d/%d ticks - /modkit cancel to stop", profiler.ticks, profiler.duration)), true);
+                }
+            }
+        }
+    }
+
+    public static void onPlayerLogout(PlayerEvent.PlayerLoggedOutEvent event) {
+        stop(event.getEntity().getUUID());
+    }
+
+    public static void onServerStopping(ServerStoppingEvent event) {
+        while (!ACTIVE.isEmpty()) {
+            ACTIVE.remove(ACTIVE.size() - 1).end();
+        }
+    }
+
+    @Nullable
+    private ServerPlayer getOwner() {
+        return this.level.getServer().getPlayerList().getPlayer(this.owner);
+    }
+
+    private void report() {
+        var player = this.getOwner();
+        if (player == null) return;
+
+        var ticks = Math.max(1, this.ticks);
+        var rows = new ArrayList<Row>();
+        for (var profiled : this.blockEntities) {
+            rows.add(new Row(profiled.getType(), profiled.getPos(), profiled.nanos));
+        }
+        for (var profiled : this.entities.values()) {
+            rows.add(new Row(profiled.type, profiled.pos, profiled.nanos));
+        }
+
+        Map<String, Row> types = new HashMap<>();
+        for (var row : rows) {
+            types.merge(row.type, row, (a, b) -> new Row(a.type, a.pos, a.nanos + b.nanos, a.count + b.count));
+        }
+
+        long total = 0;
+        for (var row : rows) {
+            total += row.nanos;
+        }
+
+        player.sendSystemMessage(Component.literal(String.format("Profiled %d block entities and %d entities over %d ticks: %.1f µs/tick",
+                this.blockEntities.size(), this.entities.size(), ticks, total / 1000.0 / ticks)).withStyle(ChatFormatting.GOLD));
+
+        player.sendSystemMessage(Component.literal("By type:").withStyle(ChatFormatting.GOLD));
+        var byType = new ArrayList<>(types.values());
+        byType.sort(Comparator.comparingLong(Row::nanos).reversed());
+        for (int i = 0; i < Math.min(MAX_ROWS, byType.size()); i++) {
+            var row = byType.get(i);
+            player.sendSystemMessage(row.format(byType.get(0).nanos, ticks).append(Component.literal(String.format(" %s x%d", row.type, row.count)).withStyle(ChatFormatting.GRAY)));
+        }
+
+        player.sendSystemMessage(Component.literal("By position:").withStyle(ChatFormatting.GOLD));
+        rows.sort(Comparator.comparingLong(Row::nanos).reversed());
+        for (int i = 0; i < Math.min(MAX_ROWS, rows.size()); i++) {
+            var row = rows.get(i);
+            player.sendSystemMessage(row.format(rows.get(0).nanos, ticks).append(Component.literal(String.format(" %s at %d %d %d",
+                    row.type, row.pos.getX(), row.pos.getY(), row.pos.getZ())).withStyle(ChatFormatting.GRAY)));
+        }
+    }
+
+    private record Row(String type, BlockPos pos, long nanos, int count) {
+        Row(String type, BlockPos pos, long nanos) {
+            this(type, pos, nanos, 1);
+        }
+
+        // average cost per tick with a bar relative to the most expensive row
+        Component format(long maxNanos, int ticks) {
+            var length = maxNanos == 0 ? 0 : (int) (BAR_LENGTH * this.nanos / maxNanos);
+            return Component.literal(String.format("%9.1f µs ", this.nanos / 1000.0 / ticks))
+                    .append(Component.literal("|".repeat(length)).withStyle(ChatFormatting.RED))
+                    .append(Component.literal("|".repeat(BAR_LENGTH - length)).withStyle(ChatFormatting.DARK_GRAY));
+        }
+    }
+
+    private static final class ProfiledTicker implements TickingBlockEntity {
+        final TickProfiler profiler;
+        final TickingBlockEntity delegate;
+        long nanos;
+
+        ProfiledTicker(TickProfiler profiler, TickingBlockEntity delegate) {
+            this.profiler = profiler;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void tick() {
+            var start = System.nanoTime();
+            this.delegate.tick();
+            this.nanos += System.nanoTime() - start;
+        }
+
+        @Override
+        public boolean isRemoved() {
+            return this.delegate.isRemoved();
+        }
+
+        @Override
+        public BlockPos getPos() {
+            return this.delegate.getPos();
+        }
+
+        @Override
+        public String getType() {
+            return this.delegate.getType();
+        }
+    }
+
+    // delegates everything to the level's own list, which keeps being updated while the profile runs
+    private static final class ProfiledEntityTickList extends EntityTickList {
+        final EntityTickList delegate;
+
+        ProfiledEntityTickList(EntityTickList delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void add(Entity entity) {
+            this.delegate.add(entity);
+        }
+
+        @Override
+        public void remove(Entity entity) {
+            this.delegate.remove(entity);
+        }
+
+        @Override
+        public boolean contains(Entity entity) {
+            return this.delegate.contains(entity);
+        }
+
+        @Override
+        public void forEach(Consumer<Entity> action) {
+            this.delegate.forEach(entity -> {
+                var profiler = find(entity);
+                if (profiler == null) {
+                    action.accept(entity);
+                    return;
+                }
+
+                var start = System.nanoTime();
+                action.accept(entity);
+                var profiled = profiler.entities.computeIfAbsent(entity.getUUID(), uuid -> new ProfiledEntity(entity));
+                profiled.nanos += System.nanoTime() - start;
+                profiled.pos = entity.blockPosition();
+            });
+        }
+    }
+
+    private static final class ProfiledEntity {
+        final String type;
+        BlockPos pos;
+        long nanos;
+
+        ProfiledEntity(Entity entity) {
+            this.type = BuiltInRegistries.ENTITY_TYPE.getKey(entity.getType()).toString();
+            this.pos = entity.blockPosition();
+        }
+    }
+}
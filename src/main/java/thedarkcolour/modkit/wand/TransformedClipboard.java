@@ -0,0 +1,155 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 thedarkcolour
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ */
+
+package thedarkcolour.modkit.wand;
+
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.DoubleTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.Tag;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A rotated and/or mirrored view of another clipboard. Positions are mapped back to the source clipboard
+ * on every read, so no transformed copy is ever allocated, and each distinct block state is only
+ * transformed once. A {@link BlockSnapshot} source has every palette entry transformed up front into an
+ * array indexed by palette id; other sources fall back to a map from source state to transformed state.
+ */
+public final class TransformedClipboard implements Clipboard {
+    private final Clipboard source;
+    private final ClipboardTransform transform;
+    private final BoundingBox box;
+    // transformed state for each palette id of a BlockSnapshot source, or null for other sources
+    @Nullable
+    private final BlockState[] paletteStates;
+    // BlockState has identity equality, so this is a lookup table of source state to transformed state
+    private final Map<BlockState, BlockState> states = new ConcurrentHashMap<>();
+
+    private TransformedClipboard(Clipboard source, ClipboardTransform transform) {
+        this.source = source;
+        this.transform = transform;
+
+        var box = source.box();
+        int x0 = transform.applyX(box.minX(), box.minZ()), z0 = transform.applyZ(box.minX(), box.minZ());
+        int x1 = transform.applyX(box.maxX(), box.maxZ()), z1 = transform.applyZ(box.maxX(), box.maxZ());
+        this.box = new BoundingBox(Math.min(x0, x1), box.minY(), Math.min(z0, z1), Math.max(x0, x1), box.maxY(), Math.max(z0, z1));
+
+        if (source instanceof BlockSnapshot snapshot) {
+            this.paletteStates = new BlockState[snapshot.getPaletteSize()];
+            for (int id = 0; id < this.paletteStates.length; id++) {
+                var state = snapshot.getPaletteState(id);
+                this.paletteStates[id] = state == null ? null : transform.apply(state);
+            }
+        } else {
+            this.paletteStates = null;
+        }
+    }
+
+    /**
+     * @return A view of the clipboard with the transform applied, or the clipboard itself if there is nothing to transform
+     */
+    public static Clipboard of(Clipboard source, ClipboardTransform transform) {
+        return transform.isIdentity() ? source : new TransformedClipboard(source, transform);
+    }
+
+    @Override
+    public BoundingBox box() {
+        return this.box;
+    }
+
+    @Nullable
+    @Override
+    public BlockState get(int x, int y, int z) {
+        int sourceX = this.transform.inverseX(x, z), sourceZ = this.transform.inverseZ(x, z);
+
+        if (this.paletteStates != null) {
+            int id = ((BlockSnapshot) this.source).getPaletteId(sourceX, y, sourceZ);
+            // clipboards are not modified after they are created, so every id is already in the table
+            return this.paletteStates[id];
+        }
+
+        var state = this.source.get(sourceX, y, sourceZ);
+        if (state == null) {
+            return null;
+        }
+
+        var transformed = this.states.get(state);
+        if (transformed == null) {
+            transformed = this.transform.apply(state);
+            this.states.put(state, transformed);
+        }
+        return transformed;
+    }
+
+    @Nullable
+    @Override
+    public CompoundTag getBlockEntity(int x, int y, int z) {
+        return this.source.getBlockEntity(this.transform.inverseX(x, z), y, this.transform.inverseZ(x, z));
+    }
+
+    /**
+     * @return Copies of the source's entities with transformed positions. Their facing is transformed when they are spawned.
+     */
+    @Override
+    public List<CompoundTag> getEntities() {
+        var entities = this.source.getEntities();
+        if (entities.isEmpty()) {
+            return entities;
+        }
+
+        List<CompoundTag> transformed = new ArrayList<>(entities.size());
+        for (var entity : entities) {
+            var tag = entity.copy();
+            this.transformEntity(tag);
+            transformed.add(tag);
+        }
+        return transformed;
+    }
+
+    private void transformEntity(CompoundTag tag) {
+        var pos = tag.getList("Pos", Tag.TAG_DOUBLE);
+        if (pos.size() == 3) {
+            double x = pos.getDouble(0), z = pos.getDouble(2);
+            var moved = new ListTag();
+            moved.add(DoubleTag.valueOf(this.transform.applyX(x, z)));
+            moved.add(pos.get(1));
+            moved.add(DoubleTag.valueOf(this.transform.applyZ(x, z)));
+            tag.put("Pos", moved);
+        }
+        if (tag.contains("TileX", Tag.TAG_INT)) {
+            int x = tag.getInt("TileX"), z = tag.getInt("TileZ");
+            tag.putInt("TileX", this.transform.applyX(x, z));
+            tag.putInt("TileZ", this.transform.applyZ(x, z));
+        }
+
+        var passengers = tag.getList("Passengers", Tag.TAG_COMPOUND);
+        for (int i = 0; i < passengers.size(); i++) {
+            this.transformEntity(passengers.getCompound(i));
+        }
+    }
+
+    @Override
+    public ClipboardTransform getTransform() {
+        return this.transform;
+    }
+}
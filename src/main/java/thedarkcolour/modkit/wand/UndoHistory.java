@@ -0,0 +1,356 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 thedarkcolour
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ */
+
+package thedarkcolour.modkit.wand;
+
+import net.minecraft.Util;
+import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.nbt.NbtIo;
+import net.minecraft.network.chat.Component;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.storage.LevelResource;
+import net.minecraftforge.event.server.ServerStartingEvent;
+import org.jetbrains.annotations.Nullable;
+import thedarkcolour.modkit.MKConfig;
+import thedarkcolour.modkit.ModKit;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A player's undo and redo stacks, shared between every wand. The snapshots of all players count towards
+ * a single memory budget; once it is exceeded, the oldest snapshots in memory are compressed into files
+ * under the world's data directory and are only read back when they are undone. Each player's history
+ * is also limited in size, and is forgotten along with the player's {@link WandSession}.
+ * <p>
+ * Each history is guarded by its own lock, and the shared memory budget is tracked with concurrent
+ * structures, so histories of different players never contend with each other.
+ */
+public class UndoHistory {
+    // every entry which is still in memory, oldest first
+    private static final Deque<Entry> IN_MEMORY = new ConcurrentLinkedDeque<>();
+    private static final AtomicLong MEMORY_BYTES = new AtomicLong();
+    // part of MEMORY_BYTES whose entries are currently being written to disk
+    private static final AtomicLong SPILLING_BYTES = new AtomicLong();
+    private static final AtomicInteger FILE_COUNTER = new AtomicInteger();
+
+    private final Deque<Entry> undo = new ArrayDeque<>();
+    private final Deque<Entry> redo = new ArrayDeque<>();
+    private final UUID owner;
+    // size of all entries in this history, in memory or on disk
+    private long bytes;
+    private boolean closed;
+
+    UndoHistory(UUID owner) {
+        this.owner = owner;
+    }
+
+    public static UndoHistory get(UUID player) {
+        return WandSession.get(player).getHistory();
+    }
+
+    @Nullable
+    public static UndoHistory getIfPresent(UUID player) {
+        var session = WandSession.getIfPresent(player);
+        return session == null ? null : session.getHistory();
+    }
+
+    public synchronized boolean canUndo() {
+        return !this.undo.isEmpty();
+    }
+
+    public synchronized boolean canRedo() {
+        return !this.redo.isEmpty();
+    }
+
+    /**
+     * Records a new operation. Anything that could be redone is forgotten.
+     */
+    public synchronized void push(ServerLevel level, BlockSnapshot snapshot) {
+        while (!this.redo.isEmpty()) {
+            this.remove(this.redo.pop());
+        }
+
+        this.pushTo(this.undo, level, snapshot);
+    }
+
+    /**
+     * Undoes the most recent operation, which can then be redone.
+     *
+     * @return Whether there was anything to undo
+     */
+    public boolean undo(ServerPlayer player) {
+        return this.restore(player, this.undo, this.redo, "Undoing", "Undo!");
+    }
+
+    /**
+     * Redoes the most recently undone operation, which can then be undone again.
+     *
+     * @return Whether there was anything to redo
+     */
+    public boolean redo(ServerPlayer player) {
+        return this.restore(player, this.redo, this.undo, "Redoing", "Redo!");
+    }
+
+    private boolean restore(ServerPlayer player, Deque<Entry> from, Deque<Entry> to, String name, String doneMessage) {
+        Entry entry;
+        synchronized (this) {
+            entry = from.poll();
+            if (entry == null) {
+                return false;
+            }
+            this.bytes -= entry.bytes;
+        }
+
+        var server = player.server;
+        var level = server.getLevel(entry.dimension);
+        if (level == null) {
+            entry.discard();
+            player.displayClientMessage(Component.literal("Dimension " + entry.dimension.location() + " is no longer loaded"), true);
+            return true;
+        }
+
+        if (entry.isOnDisk()) {
+            player.displayClientMessage(Component.literal("Loading snapshot from disk..."), true);
+        }
+
+        entry.take().whenCompleteAsync((snapshot, error) -> {
+            if (error != null) {
+                ModKit.LOGGER.error("Failed to read undo snapshot", error);
+                player.displayClientMessage(Component.literal("Failed to read snapshot from disk"), true);
+            } else {
+                // the player logged out or the session expired while the snapshot was read, so don't bring it back
+                var session = WandSession.getIfPresent(this.owner);
+                if (session == null || session.getHistory() != this || this.isClosed()) {
+                    return;
+                }
+                JobScheduler.submit(new RestoreJob(level, this.owner, snapshot, name, session.getWriteMode(), inverse -> this.pushTo(to, level, inverse), Component.literal(doneMessage)));
+            }
+        }, server);
+
+        return true;
+    }
+
+    private synchronized void pushTo(Deque<Entry> stack, ServerLevel level, BlockSnapshot snapshot) {
+        // the session was closed while a job was running
+        if (this.closed) {
+            return;
+        }
+
+        var entry = new Entry(level.dimension(), snapshot, this.owner);
+        stack.push(entry);
+        this.bytes += entry.bytes;
+        IN_MEMORY.addLast(entry);
+        MEMORY_BYTES.addAndGet(entry.bytes);
+
+        while (stack.size() > MKConfig.UNDO_HISTORY_SIZE.get()) {
+            this.remove(stack.removeLast());
+        }
+
+        // forget the oldest operations, but always keep the one that was just added
+        var limit = MKConfig.UNDO_PLAYER_LIMIT.get() * 1024L * 1024L;
+        while (this.bytes > limit) {
+            if (this.undo.size() > (stack == this.undo ? 1 : 0)) {
+                this.remove(this.undo.removeLast());
+            } else if (this.redo.size() > (stack == this.redo ? 1 : 0)) {
+                this.remove(this.redo.removeLast());
+            } else {
+                break;
+            }
+        }
+
+        var budget = MKConfig.UNDO_MEMORY_BUDGET.get() * 1024L * 1024L;
+        var directory = getSpillDirectory(level.getServer());
+
+        // entries which are still being written count as spilled, so one push doesn't spill everything
+        while (MEMORY_BYTES.get() - SPILLING_BYTES.get() > budget) {
+            var oldest = IN_MEMORY.pollFirst();
+            if (oldest == null) break;
+            oldest.spill(directory);
+        }
+    }
+
+    private void remove(Entry entry) {
+        this.bytes -= entry.bytes;
+        entry.discard();
+    }
+
+    private synchronized boolean isClosed() {
+        return this.closed;
+    }
+
+    synchronized void close() {
+        this.closed = true;
+        this.undo.forEach(Entry::discard);
+        this.redo.forEach(Entry::discard);
+        this.undo.clear();
+        this.redo.clear();
+        this.bytes = 0;
+    }
+
+    private static Path getSpillDirectory(MinecraftServer server) {
+        return server.getWorldPath(LevelResource.ROOT).resolve("data").resolve(ModKit.ID + "_undo");
+    }
+
+    // histories don't survive a restart, so files left behind by a crash or an unfinished write are never read again
+    public static void onServerStarting(ServerStartingEvent event) {
+        var directory = getSpillDirectory(event.getServer());
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+
+        try (var files = Files.newDirectoryStream(directory, "*.dat")) {
+            for (var file : files) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            ModKit.LOGGER.warn("Failed to delete old undo snapshots in {}", directory, e);
+        }
+    }
+
+    private static final class Entry {
+        private final ResourceKey<Level> dimension;
+        private final long bytes;
+        private final UUID owner;
+        // null once the snapshot has been written to disk
+        @Nullable
+        private BlockSnapshot snapshot;
+        // set once the snapshot has been written to disk
+        @Nullable
+        private Path file;
+        @Nullable
+        private CompletableFuture<Void> write;
+        // whether the bytes of this entry are still counted in MEMORY_BYTES
+        private boolean counted = true;
+        // whether the entry has been taken or discarded
+        private boolean released;
+
+        private Entry(ResourceKey<Level> dimension, BlockSnapshot snapshot, UUID owner) {
+            this.dimension = dimension;
+            this.owner = owner;
+            this.snapshot = snapshot;
+            this.bytes = snapshot.estimateBytes();
+        }
+
+        private synchronized boolean isOnDisk() {
+            return this.file != null;
+        }
+
+        private synchronized void uncount() {
+            if (this.counted) {
+                this.counted = false;
+                MEMORY_BYTES.addAndGet(-this.bytes);
+            }
+        }
+
+        // only called by whoever removed this entry from IN_MEMORY. The memory is only given back once the
+        // write succeeds; if it fails, the snapshot stays in memory and is not spilled again
+        private synchronized void spill(Path directory) {
+            if (this.released) return;
+
+            var snapshot = this.snapshot;
+            var file = directory.resolve(this.owner + "-" + FILE_COUNTER.getAndIncrement() + ".dat");
+            SPILLING_BYTES.addAndGet(this.bytes);
+            this.write = CompletableFuture.runAsync(() -> {
+                try {
+                    Files.createDirectories(directory);
+                    NbtIo.writeCompressed(snapshot.save(), file.toFile());
+
+                    synchronized (this) {
+                        this.snapshot = null;
+                        this.file = file;
+                        this.uncount();
+                    }
+                } catch (IOException e) {
+                    ModKit.LOGGER.error("Failed to save undo snapshot to {}", file, e);
+
+                    try {
+                        Files.deleteIfExists(file);
+                    } catch (IOException ignored) {
+                    }
+                } finally {
+                    SPILLING_BYTES.addAndGet(-this.bytes);
+                }
+            }, Util.ioPool());
+        }
+
+        // gets the snapshot, reading it back from disk if necessary
+        private synchronized CompletableFuture<BlockSnapshot> take() {
+            this.released = true;
+            IN_MEMORY.remove(this);
+            this.uncount();
+
+            if (this.write == null) {
+                return CompletableFuture.completedFuture(this.snapshot);
+            }
+
+            return this.write.thenApplyAsync(unused -> {
+                BlockSnapshot snapshot;
+                Path file;
+                synchronized (this) {
+                    snapshot = this.snapshot;
+                    file = this.file;
+                }
+
+                if (snapshot == null && file != null) {
+                    try {
+                        snapshot = BlockSnapshot.load(NbtIo.readCompressed(file.toFile()), BuiltInRegistries.BLOCK.asLookup());
+                        Files.deleteIfExists(file);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+
+                return snapshot;
+            }, Util.ioPool());
+        }
+
+        private synchronized void discard() {
+            this.released = true;
+            IN_MEMORY.remove(this);
+            this.uncount();
+
+            if (this.write != null) {
+                this.write.thenRunAsync(() -> {
+                    Path file;
+                    synchronized (this) {
+                        file = this.file;
+                    }
+
+                    if (file != null) {
+                        try {
+                            Files.deleteIfExists(file);
+                        } catch (IOException e) {
+                            ModKit.LOGGER.warn("Failed to delete undo snapshot {}", file, e);
+                        }
+                    }
+                }, Util.ioPool());
+            }
+        }
+    }
+}
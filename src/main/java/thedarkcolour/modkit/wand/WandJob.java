@@ -0,0 +1,105 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 thedarkcolour
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ */
+
+package thedarkcolour.modkit.wand;
+
+import net.minecraft.network.chat.Component;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.server.level.ServerPlayer;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.UUID;
+
+/**
+ * A resumable wand operation. Jobs are run by the {@link JobScheduler} a few thousand blocks at a time
+ * so that large operations are spread over several ticks instead of stalling the server.
+ */
+public abstract class WandJob {
+    protected final ServerLevel level;
+    protected final UUID owner;
+    private final String name;
+    private final long total;
+
+    protected long processed;
+    protected boolean done;
+    private volatile boolean cancelled;
+
+    /**
+     * @param name  Shown on the action bar while the job runs, ex. "Filling"
+     * @param total Number of blocks this job will process, used to report progress
+     */
+    protected WandJob(ServerLevel level, UUID owner, String name, long total) {
+        this.level = level;
+        this.owner = owner;
+        this.name = name;
+        this.total = total;
+    }
+
+    /**
+     * Processes up to {@code maxBlocks} blocks and sets {@link #done} once there is nothing left to do.
+     *
+     * @return The number of blocks processed
+     */
+    protected abstract int run(int maxBlocks);
+
+    /**
+     * Called at the end of every tick in which this job ran.
+     */
+    protected void endTick() {
+    }
+
+    /**
+     * Called once when this job is done or cancelled. Cancelled jobs should keep whatever undo
+     * information they have collected so far, since their changes have already been made.
+     */
+    protected abstract void finish(boolean cancelled);
+
+    public boolean isDone() {
+        return this.done;
+    }
+
+    /**
+     * Requests that this job stops. Can be called from any thread, the job is finished on the next tick.
+     */
+    public void cancel() {
+        this.cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    public UUID getOwnerId() {
+        return this.owner;
+    }
+
+    @Nullable
+    protected ServerPlayer getOwner() {
+        return this.level.getServer().getPlayerList().getPlayer(this.owner);
+    }
+
+    protected void sendMessage(Component message) {
+        var player = this.getOwner();
+        if (player != null) {
+            player.displayClientMessage(message, true);
+        }
+    }
+
+    public Component getProgressMessage() {
+        var percent = this.total == 0 ? 100 : (int) (100 * this.processed / this.total);
+        return Component.literal(String.format("%s... %d%% (%d/%d) - sneak use to cancel", this.name, percent, this.processed, this.total));
+    }
+}
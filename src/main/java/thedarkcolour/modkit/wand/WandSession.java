@@ -0,0 +1,189 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 thedarkcolour
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ */
+
+package thedarkcolour.modkit.wand;
+
+import net.minecraft.Util;
+import net.minecraftforge.event.TickEvent;
+import net.minecraftforge.event.entity.player.PlayerEvent;
+import net.minecraftforge.event.server.ServerStoppingEvent;
+import org.jetbrains.annotations.Nullable;
+import thedarkcolour.modkit.MKConfig;
+
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+/**
+ * Everything a player's wands remember between uses: undo history, selection, clipboard, write mode and queued jobs.
+ * Sessions are keyed by UUID so they never keep a player object alive, and are closed when the
+ * player logs out, when the server stops, or after the idle timeout from {@link MKConfig#IDLE_TIMEOUT}.
+ * <p>
+ * Sessions can be used from any thread. The session map is concurrent, the clipboard
+ * and selection are swapped atomically, jobs are queued lock-free, and the undo history locks only itself,
+ * so levels ticking in parallel never contend on a shared lock.
+ */
+public final class WandSession {
+    private static final Map<UUID, WandSession> SESSIONS = new ConcurrentHashMap<>();
+    // ticks between checks for idle sessions
+    private static final int EXPIRY_INTERVAL = 20 * 60;
+    private static int ticks;
+
+    private final UUID owner;
+    private final UndoHistory history;
+    // only the first job runs, see JobScheduler
+    final Deque<WandJob> jobs = new ConcurrentLinkedDeque<>();
+    private final AtomicReference<Selection> selection = new AtomicReference<>(Selection.EMPTY);
+    @Nullable
+    private volatile Clipboard clipboard;
+    private volatile ClipboardTransform transform = ClipboardTransform.NONE;
+    private volatile WriteMode writeMode = WriteMode.NO_NEIGHBOR_UPDATES;
+    private volatile long lastUsed;
+
+    private WandSession(UUID owner) {
+        this.owner = owner;
+        this.history = new UndoHistory(owner);
+        this.lastUsed = Util.getMillis();
+    }
+
+    public static WandSession get(UUID player) {
+        var session = SESSIONS.computeIfAbsent(player, WandSession::new);
+        session.lastUsed = Util.getMillis();
+        return session;
+    }
+
+    @Nullable
+    public static WandSession getIfPresent(UUID player) {
+        var session = SESSIONS.get(player);
+        if (session != null) {
+            session.lastUsed = Util.getMillis();
+        }
+        return session;
+    }
+
+    static Collection<WandSession> all() {
+        return SESSIONS.values();
+    }
+
+    public UUID getOwner() {
+        return this.owner;
+    }
+
+    public UndoHistory getHistory() {
+        return this.history;
+    }
+
+    public Selection getSelection() {
+        return this.selection.get();
+    }
+
+    /**
+     * Atomically replaces the selection with the result of the given edit.
+     *
+     * @return The new selection
+     */
+    public Selection updateSelection(UnaryOperator<Selection> edit) {
+        return this.selection.updateAndGet(edit);
+    }
+
+    public void clearSelection() {
+        this.selection.set(Selection.EMPTY);
+    }
+
+    @Nullable
+    public Clipboard getClipboard() {
+        return this.clipboard;
+    }
+
+    /**
+     * Replaces the clipboard and resets the transform.
+     */
+    public void setClipboard(@Nullable Clipboard clipboard) {
+        this.clipboard = clipboard;
+        this.transform = ClipboardTransform.NONE;
+    }
+
+    /**
+     * @return The rotation and mirror applied to the clipboard when pasting
+     */
+    public ClipboardTransform getTransform() {
+        return this.transform;
+    }
+
+    public void setTransform(ClipboardTransform transform) {
+        this.transform = transform;
+    }
+
+    /**
+     * @return The write mode used by new fill, paste, undo and redo operations
+     */
+    public WriteMode getWriteMode() {
+        return this.writeMode;
+    }
+
+    public void setWriteMode(WriteMode writeMode) {
+        this.writeMode = writeMode;
+    }
+
+    public boolean isBusy() {
+        return !this.jobs.isEmpty();
+    }
+
+    // must be called on the server thread, since it finishes running jobs
+    private void close() {
+        JobScheduler.finishAll(this);
+        this.history.close();
+        this.clipboard = null;
+    }
+
+    public static void onServerTick(TickEvent.ServerTickEvent event) {
+        if (event.phase != TickEvent.Phase.END || ++ticks % EXPIRY_INTERVAL != 0) return;
+
+        var timeout = MKConfig.IDLE_TIMEOUT.get();
+        if (timeout != 0) {
+            var cutoff = Util.getMillis() - timeout * 60_000L;
+
+            for (var iterator = SESSIONS.values().iterator(); iterator.hasNext(); ) {
+                var session = iterator.next();
+
+                if (session.lastUsed < cutoff && !session.isBusy()) {
+                    iterator.remove();
+                    session.close();
+                }
+            }
+        }
+    }
+
+    public static void onPlayerLogout(PlayerEvent.PlayerLoggedOutEvent event) {
+        var session = SESSIONS.remove(event.getEntity().getUUID());
+
+        if (session != null) {
+            session.close();
+        }
+    }
+
+    public static void onServerStopping(ServerStoppingEvent event) {
+        for (var session : SESSIONS.values()) {
+            session.close();
+        }
+        SESSIONS.clear();
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 thedarkcolour
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ */
+
+package thedarkcolour.modkit.wand;
+
+import java.util.Locale;
+
+/**
+ * How a {@link BatchedBlockWriter} applies side effects of its writes. None of the modes cause neighbor
+ * updates for every written block, since a paste of a redstone contraption would otherwise cascade
+ * into block updates and physics inside the half-placed structure.
+ */
+public enum WriteMode {
+    /**
+     * Light is updated as blocks are written, neighbors are never notified.
+     */
+    NO_NEIGHBOR_UPDATES,
+    /**
+     * Light is never updated and neighbors are never notified. Lighting inside the region stays
+     * wrong until the affected blocks change again.
+     */
+    NO_LIGHTING,
+    /**
+     * Light checks are collected for the whole operation and queued once at the end, after which
+     * only the blocks just outside the region are notified of their new neighbors.
+     */
+    DEFERRED_LIGHTING;
+
+    public String getName() {
+        return this.name().toLowerCase(Locale.ROOT);
+    }
+}